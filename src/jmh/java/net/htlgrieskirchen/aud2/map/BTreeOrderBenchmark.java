@@ -0,0 +1,67 @@
+package net.htlgrieskirchen.aud2.map;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares lookups and short range scans of {@link BTreeMyMap} with different
+ * fan-outs against the balanced binary {@link MyMap}, which is order 2.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class BTreeOrderBenchmark {
+	@Param({"100000", "1000000", "10000000"})
+	public int size;
+
+	@Param({"2", "8", "32", "64", "128"})
+	public int order;
+
+	/**
+	 * Number of entries visited by each range scan
+	 */
+	@Param({"100"})
+	public int scanLength;
+
+	private NavigableMap<Integer, Integer> map;
+	private Integer[] keys;
+	private int index;
+
+	@Setup
+	public void fill() {
+		map = order == 2 ? new MyMap<>(true) : new BTreeMyMap<>(order);
+		keys = KeyOrder.RANDOM.keys(size);
+		for(Integer key : keys)
+			map.put(key, key);
+		KeyOrder.shuffle(keys, new Random(7));
+	}
+
+	private Integer nextKey() {
+		Integer key = keys[index];
+		if(++index == size) index = 0;
+		return key;
+	}
+
+	@Benchmark
+	public Integer get() {
+		return map.get(nextKey());
+	}
+
+	@Benchmark
+	public long scan() {
+		long sum = 0;
+		int remaining = scanLength;
+		for(Map.Entry<Integer, Integer> entry : map.tailMap(nextKey(), true).entrySet()) {
+			sum += entry.getValue();
+			if(--remaining == 0) break;
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,60 @@
+package net.htlgrieskirchen.aud2.map;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drops half of the keys of a filled map at once through the bulk
+ * operations of its key set. The map is refilled before each invocation,
+ * which is why this runs as a single shot.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class BulkRemoveBenchmark {
+	@Param({"1000", "100000", "1000000"})
+	public int size;
+
+	@Param
+	public MapImplementation implementation;
+
+	private Integer[] keys;
+	private Set<Integer> dropped;
+	private Map<Integer, Integer> map;
+
+	@Setup
+	public void prepare() {
+		keys = KeyOrder.RANDOM.keys(size);
+		Integer[] shuffled = keys.clone();
+		KeyOrder.shuffle(shuffled, new Random(7));
+		dropped = new HashSet<>(Arrays.asList(shuffled).subList(0, size / 2));
+	}
+
+	@Setup(Level.Invocation)
+	public void fill() {
+		map = implementation.filled(keys);
+	}
+
+	@Benchmark
+	public Map<Integer, Integer> removeAll() {
+		map.keySet().removeAll(dropped);
+		return map;
+	}
+
+	@Benchmark
+	public Map<Integer, Integer> retainAll() {
+		map.keySet().retainAll(dropped);
+		return map;
+	}
+
+	@Benchmark
+	public Map<Integer, Integer> removeIf() {
+		map.keySet().removeIf(dropped::contains);
+		return map;
+	}
+}
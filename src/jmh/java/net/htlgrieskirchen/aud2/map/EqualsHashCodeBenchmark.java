@@ -0,0 +1,60 @@
+package net.htlgrieskirchen.aud2.map;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures hashCode() and equals() against a copy of the same type and
+ * against copies in a TreeMap and a HashMap.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class EqualsHashCodeBenchmark {
+	@Param({"1000", "100000", "1000000", "10000000"})
+	public int size;
+
+	@Param
+	public MapImplementation implementation;
+
+	private Map<Integer, Integer> map;
+	private Map<Integer, Integer> sameType;
+	private Map<Integer, Integer> treeMap;
+	private Map<Integer, Integer> hashMap;
+
+	@Setup
+	public void fill() {
+		Integer[] keys = KeyOrder.RANDOM.keys(size);
+		map = implementation.filled(keys);
+		sameType = implementation.filled(keys);
+		treeMap = new TreeMap<>(map);
+		hashMap = new HashMap<>(map);
+	}
+
+	@Benchmark
+	public int hashCodeOfMap() {
+		return map.hashCode();
+	}
+
+	@Benchmark
+	public boolean equalsSameType() {
+		return map.equals(sameType);
+	}
+
+	@Benchmark
+	public boolean equalsTreeMap() {
+		return map.equals(treeMap);
+	}
+
+	@Benchmark
+	public boolean equalsHashMap() {
+		return map.equals(hashMap);
+	}
+}
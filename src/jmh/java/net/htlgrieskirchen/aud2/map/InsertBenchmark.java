@@ -0,0 +1,39 @@
+package net.htlgrieskirchen.aud2.map;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fills an empty map with random, sorted or reverse-sorted keys.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class InsertBenchmark {
+	@Param({"1000", "100000", "1000000", "10000000"})
+	public int size;
+
+	@Param
+	public MapImplementation implementation;
+
+	@Param
+	public KeyOrder order;
+
+	private Integer[] keys;
+
+	@Setup
+	public void prepare() {
+		implementation.checkFeasible(order, size);
+		keys = order.keys(size);
+	}
+
+	@Benchmark
+	public Map<Integer, Integer> insert() {
+		return implementation.filled(keys);
+	}
+}
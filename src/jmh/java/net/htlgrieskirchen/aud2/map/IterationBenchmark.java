@@ -0,0 +1,67 @@
+package net.htlgrieskirchen.aud2.map;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Iterates over all entries, keys and values of a filled map, with
+ * iterators, with {@link Map#forEach} and with a parallel stream.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class IterationBenchmark {
+	@Param({"1000", "100000", "1000000", "10000000"})
+	public int size;
+
+	@Param
+	public MapImplementation implementation;
+
+	private Map<Integer, Integer> map;
+
+	@Setup
+	public void fill() {
+		map = implementation.filled(KeyOrder.RANDOM.keys(size));
+	}
+
+	@Benchmark
+	public long entrySet() {
+		long sum = 0;
+		for(Map.Entry<Integer, Integer> entry : map.entrySet())
+			sum += entry.getKey() + entry.getValue();
+		return sum;
+	}
+
+	@Benchmark
+	public long keySet() {
+		long sum = 0;
+		for(Integer key : map.keySet())
+			sum += key;
+		return sum;
+	}
+
+	@Benchmark
+	public long values() {
+		long sum = 0;
+		for(Integer value : map.values())
+			sum += value;
+		return sum;
+	}
+
+	@Benchmark
+	public long forEach() {
+		long[] sum = {0};
+		map.forEach((key, value) -> sum[0] += key + value);
+		return sum[0];
+	}
+
+	@Benchmark
+	public long parallelStream() {
+		return map.entrySet().parallelStream().mapToLong(entry -> entry.getKey() + entry.getValue()).sum();
+	}
+}
@@ -0,0 +1,34 @@
+package net.htlgrieskirchen.aud2.map;
+
+import java.util.Random;
+
+/**
+ * The order in which the benchmarks insert their keys.
+ */
+public enum KeyOrder {
+	RANDOM,
+	SORTED,
+	REVERSED;
+
+	/**
+	 * @return size distinct even keys in this order. Odd keys are never
+	 * contained, so they can be used for lookups that miss.
+	 */
+	public Integer[] keys(int size) {
+		Integer[] keys = new Integer[size];
+		for(int i = 0; i < size; i++)
+			keys[i] = 2 * (this == REVERSED ? size - 1 - i : i);
+		if(this == RANDOM)
+			shuffle(keys, new Random(42));
+		return keys;
+	}
+
+	public static void shuffle(Integer[] keys, Random random) {
+		for(int i = keys.length - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			Integer swap = keys[i];
+			keys[i] = keys[j];
+			keys[j] = swap;
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package net.htlgrieskirchen.aud2.map;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looks up keys that are in the map (hit) and keys that are not (miss).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class LookupBenchmark {
+	@Param({"1000", "100000", "1000000", "10000000"})
+	public int size;
+
+	@Param
+	public MapImplementation implementation;
+
+	private Map<Integer, Integer> map;
+	private Integer[] hits;
+	private Integer[] misses;
+	private int index;
+
+	@Setup
+	public void fill() {
+		hits = KeyOrder.RANDOM.keys(size);
+		map = implementation.filled(hits);
+		KeyOrder.shuffle(hits, new Random(7));
+		misses = new Integer[size];
+		for(int i = 0; i < size; i++)
+			misses[i] = hits[i] + 1;
+	}
+
+	private int nextIndex() {
+		int current = index;
+		if(++index == size) index = 0;
+		return current;
+	}
+
+	@Benchmark
+	public Integer getHit() {
+		return map.get(hits[nextIndex()]);
+	}
+
+	@Benchmark
+	public Integer getMiss() {
+		return map.get(misses[nextIndex()]);
+	}
+
+	@Benchmark
+	public boolean containsKeyHit() {
+		return map.containsKey(hits[nextIndex()]);
+	}
+}
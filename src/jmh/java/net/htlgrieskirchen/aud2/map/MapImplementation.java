@@ -0,0 +1,60 @@
+package net.htlgrieskirchen.aud2.map;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The maps compared by the benchmarks, used as a JMH parameter.
+ */
+public enum MapImplementation {
+	MY_MAP {
+		@Override
+		public Map<Integer, Integer> create() {
+			return new MyMap<>();
+		}
+	},
+	MY_MAP_BALANCED {
+		@Override
+		public Map<Integer, Integer> create() {
+			return new MyMap<>(true);
+		}
+	},
+	B_TREE_MY_MAP {
+		@Override
+		public Map<Integer, Integer> create() {
+			return new BTreeMyMap<>();
+		}
+	},
+	TREE_MAP {
+		@Override
+		public Map<Integer, Integer> create() {
+			return new TreeMap<>();
+		}
+	},
+	HASH_MAP {
+		@Override
+		public Map<Integer, Integer> create() {
+			return new HashMap<>();
+		}
+	};
+
+	public abstract Map<Integer, Integer> create();
+
+	/**
+	 * The unbalanced tree degenerates into a list for sorted keys, which makes
+	 * filling it quadratic. Those combinations are reported as failed instead
+	 * of running for hours.
+	 */
+	public void checkFeasible(KeyOrder order, int size) {
+		if(this == MY_MAP && order != KeyOrder.RANDOM && size > 100_000)
+			throw new IllegalStateException("Skipped: " + size + " " + order + " keys take quadratic time in an unbalanced MyMap");
+	}
+
+	public Map<Integer, Integer> filled(Integer[] keys) {
+		Map<Integer, Integer> map = create();
+		for(Integer key : keys)
+			map.put(key, key);
+		return map;
+	}
+}
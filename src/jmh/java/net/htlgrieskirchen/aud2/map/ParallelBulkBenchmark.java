@@ -0,0 +1,55 @@
+package net.htlgrieskirchen.aud2.map;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sums the values of a balanced {@link MyMap} with the parallel bulk
+ * operations at different thresholds, against copying the entries into a
+ * list and summing them with a parallel stream.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ParallelBulkBenchmark {
+	@Param({"100000", "1000000", "10000000"})
+	public int size;
+
+	/**
+	 * {@link Long#MAX_VALUE} runs sequentially
+	 */
+	@Param({"1", "10000", "9223372036854775807"})
+	public long parallelismThreshold;
+
+	private MyMap<Integer, Integer> map;
+
+	@Setup
+	public void fill() {
+		map = new MyMap<>(true);
+		for(Integer key : KeyOrder.RANDOM.keys(size))
+			map.put(key, key);
+	}
+
+	@Benchmark
+	public Long reduceValues() {
+		return map.reduceValues(parallelismThreshold, Integer::longValue, Long::sum);
+	}
+
+	@Benchmark
+	public Integer search() {
+		return map.search(parallelismThreshold, (key, value) -> value == Integer.MIN_VALUE ? key : null);
+	}
+
+	@Benchmark
+	public long copyAndParallelStream() {
+		List<Map.Entry<Integer, Integer>> entries = new ArrayList<>(map.entrySet());
+		return entries.parallelStream().mapToLong(entry -> entry.getValue()).sum();
+	}
+}
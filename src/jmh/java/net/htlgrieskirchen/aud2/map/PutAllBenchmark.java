@@ -0,0 +1,54 @@
+package net.htlgrieskirchen.aud2.map;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copies a sorted source (TreeMap) and an unsorted source (HashMap) into an
+ * empty map with putAll.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class PutAllBenchmark {
+	@Param({"1000", "100000", "1000000", "10000000"})
+	public int size;
+
+	@Param
+	public MapImplementation implementation;
+
+	private Map<Integer, Integer> sortedSource;
+	private Map<Integer, Integer> hashSource;
+
+	@Setup
+	public void fill() {
+		//Sorted input is quadratic for the unbalanced tree
+		implementation.checkFeasible(KeyOrder.SORTED, size);
+		Integer[] keys = KeyOrder.RANDOM.keys(size);
+		hashSource = new HashMap<>();
+		for(Integer key : keys)
+			hashSource.put(key, key);
+		sortedSource = new TreeMap<>(hashSource);
+	}
+
+	@Benchmark
+	public Map<Integer, Integer> putAllSorted() {
+		Map<Integer, Integer> map = implementation.create();
+		map.putAll(sortedSource);
+		return map;
+	}
+
+	@Benchmark
+	public Map<Integer, Integer> putAllHashed() {
+		Map<Integer, Integer> map = implementation.create();
+		map.putAll(hashSource);
+		return map;
+	}
+}
@@ -0,0 +1,48 @@
+package net.htlgrieskirchen.aud2.map;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link MyMap#put} for keys that are already in the map.
+ * Run with the gc profiler (enabled in build.gradle): gc.alloc.rate.norm
+ * has to stay at 0 B/op, since overwriting a value must not allocate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class PutBenchmark {
+	@Param({"1000", "1000000"})
+	public int size;
+
+	@Param({"false", "true"})
+	public boolean balanced;
+
+	private MyMap<Integer, Integer> map;
+	private Integer[] keys;
+	private int index;
+
+	@Setup
+	public void fill() {
+		Random random = new Random(42);
+		map = new MyMap<>(balanced);
+		keys = new Integer[size];
+		for(int i = 0; i < size; i++) {
+			//Random order keeps the unbalanced tree from degenerating
+			keys[i] = random.nextInt();
+			map.put(keys[i], keys[i]);
+		}
+	}
+
+	@Benchmark
+	public Integer overwriteExisting() {
+		Integer key = keys[index];
+		if(++index == keys.length) index = 0;
+		return map.put(key, key);
+	}
+}
@@ -0,0 +1,48 @@
+package net.htlgrieskirchen.aud2.map;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Empties a filled map by removing every key in random order. The map is
+ * refilled before each invocation, which is why this runs as a single shot.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class RemoveBenchmark {
+	@Param({"1000", "100000", "1000000", "10000000"})
+	public int size;
+
+	@Param
+	public MapImplementation implementation;
+
+	private Integer[] keys;
+	private Integer[] removalOrder;
+	private Map<Integer, Integer> map;
+
+	@Setup
+	public void prepare() {
+		keys = KeyOrder.RANDOM.keys(size);
+		removalOrder = keys.clone();
+		KeyOrder.shuffle(removalOrder, new Random(7));
+	}
+
+	@Setup(Level.Invocation)
+	public void fill() {
+		map = implementation.filled(keys);
+	}
+
+	@Benchmark
+	public Map<Integer, Integer> removeAll() {
+		for(Integer key : removalOrder)
+			map.remove(key);
+		return map;
+	}
+}
@@ -0,0 +1,67 @@
+package net.htlgrieskirchen.aud2.map;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializes and deserializes a filled map with Java serialization. The
+ * size of the stream per entry is reported as the secondary result
+ * bytesPerEntry of {@link #serialize}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class SerializationBenchmark {
+	@Param({"1000", "100000", "1000000"})
+	public int size;
+
+	@Param({"MY_MAP", "MY_MAP_BALANCED", "TREE_MAP", "HASH_MAP"})
+	public MapImplementation implementation;
+
+	private Map<Integer, Integer> map;
+	private byte[] serialized;
+
+	/**
+	 * Reported by JMH next to the timings of the benchmark that uses it
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class StreamSize {
+		public double bytesPerEntry;
+	}
+
+	@Setup
+	public void fill() throws IOException {
+		implementation.checkFeasible(KeyOrder.RANDOM, size);
+		map = implementation.filled(KeyOrder.RANDOM.keys(size));
+		serialized = write();
+	}
+
+	private byte[] write() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try(ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(map);
+		}
+		return bytes.toByteArray();
+	}
+
+	@Benchmark
+	public byte[] serialize(StreamSize streamSize) throws IOException {
+		byte[] stream = write();
+		streamSize.bytesPerEntry = (double) stream.length / size;
+		return stream;
+	}
+
+	@Benchmark
+	public Object deserialize() throws IOException, ClassNotFoundException {
+		try(ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+			return in.readObject();
+		}
+	}
+}
@@ -0,0 +1,857 @@
+package net.htlgrieskirchen.aud2.map;
+
+import java.util.*;
+
+/**
+ * A sorted map backed by a B+-tree instead of a binary tree.
+ * <p>
+ * Every node keeps up to {@code order} keys packed in one array, so a
+ * lookup binary-searches a few cache-friendly arrays instead of following
+ * one pointer per comparison. All entries live in the leaves, which are
+ * linked to each other in key order, so iteration and range scans walk
+ * along the leaves without going back up the tree. Apart from the root,
+ * every node is at least half full; removing merges or refills nodes to
+ * keep it that way.
+ * <p>
+ * Entries handed out by navigation methods are immutable snapshots, entries
+ * of iterators write through with {@code setValue}. Iterators are
+ * fail-fast like those of {@link MyMap}.
+ *
+ * @param <K> the type of keys
+ * @param <V> the type of values
+ */
+public class BTreeMyMap<K, V> extends AbstractMap<K, V> implements NavigableMap<K, V> {
+	public static final int DEFAULT_ORDER = 64;
+
+	private final Comparator<? super K> comparator;
+	private final int order;
+	private final int minimum;
+
+	private Node root = null;
+	private Leaf firstLeaf = null;
+	private Leaf lastLeaf = null;
+	private int size = 0;
+	/**
+	 * Number of levels, leaves included
+	 */
+	private int height = 0;
+	private int modCount = 0;
+
+	/**
+	 * Inner nodes on the path of the last modification, from the root down,
+	 * and the index of the child taken in each of them
+	 */
+	private Inner[] path = new Inner[8];
+	private int[] slots = new int[8];
+
+	public BTreeMyMap() {
+		this(null, DEFAULT_ORDER);
+	}
+
+	/**
+	 * @param order the maximum number of entries per leaf and children per inner node
+	 */
+	public BTreeMyMap(int order) {
+		this(null, order);
+	}
+
+	public BTreeMyMap(Comparator<? super K> comparator) {
+		this(comparator, DEFAULT_ORDER);
+	}
+
+	/**
+	 * @param comparator the order of the keys, or null for their natural ordering
+	 * @param order      the maximum number of entries per leaf and children per inner node
+	 */
+	public BTreeMyMap(Comparator<? super K> comparator, int order) {
+		if(order < 4)
+			throw new IllegalArgumentException("Order must be at least 4: " + order);
+		this.comparator = comparator;
+		this.order = order;
+		this.minimum = order / 2;
+	}
+
+	@SuppressWarnings("unchecked")
+	private int compare(Object key1, Object key2) {
+		if(comparator == null)
+			return ((Comparable<Object>) key1).compareTo(key2);
+		return comparator.compare((K) key1, (K) key2);
+	}
+
+	/**
+	 * @return the index of the key in the leaf, or (-(insertion point) - 1) if it is not there
+	 */
+	private int indexOf(Leaf leaf, Object key) {
+		int lo = 0;
+		int hi = leaf.count - 1;
+		while(lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int comparison = compare(leaf.keys[mid], key);
+			if(comparison < 0)
+				lo = mid + 1;
+			else if(comparison > 0)
+				hi = mid - 1;
+			else
+				return mid;
+		}
+		return -(lo + 1);
+	}
+
+	/**
+	 * @return the index of the child whose keys the key falls between
+	 */
+	private int childIndex(Inner inner, Object key) {
+		int lo = 0;
+		int hi = inner.count;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(compare(key, inner.keys[mid]) >= 0)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * @param record whether to remember the path in {@link #path} and {@link #slots}
+	 * @return the leaf the key is in or would be inserted into
+	 */
+	private Leaf findLeaf(Object key, boolean record) {
+		Node node = root;
+		for(int level = 0; node instanceof Inner; level++) {
+			Inner inner = (Inner) node;
+			int slot = childIndex(inner, key);
+			if(record) {
+				path[level] = inner;
+				slots[level] = slot;
+			}
+			node = inner.children[slot];
+		}
+		return (Leaf) node;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return root != null && indexOf(findLeaf(key, false), key) >= 0;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public V get(Object key) {
+		if(root == null)
+			return null;
+		Leaf leaf = findLeaf(key, false);
+		int index = indexOf(leaf, key);
+		return index < 0 ? null : (V) leaf.values[index];
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public V put(K key, V value) {
+		if(root == null) {
+			compare(key, key); //Type and null check
+			Leaf leaf = new Leaf(order);
+			leaf.keys[0] = key;
+			leaf.values[0] = value;
+			leaf.count = 1;
+			root = firstLeaf = lastLeaf = leaf;
+			height = 1;
+			size = 1;
+			modCount++;
+			return null;
+		}
+		Leaf leaf = findLeaf(key, true);
+		int index = indexOf(leaf, key);
+		if(index >= 0) {
+			V oldValue = (V) leaf.values[index];
+			leaf.values[index] = value;
+			return oldValue;
+		}
+		index = -index - 1;
+		insertAt(leaf.keys, leaf.count, index, key);
+		insertAt(leaf.values, leaf.count, index, value);
+		leaf.count++;
+		size++;
+		modCount++;
+		if(leaf.count > order)
+			splitLeaf(leaf);
+		return null;
+	}
+
+	private void splitLeaf(Leaf leaf) {
+		Leaf right = new Leaf(order);
+		int keep = leaf.count - leaf.count / 2;
+		right.count = leaf.count - keep;
+		System.arraycopy(leaf.keys, keep, right.keys, 0, right.count);
+		System.arraycopy(leaf.values, keep, right.values, 0, right.count);
+		Arrays.fill(leaf.keys, keep, leaf.count, null);
+		Arrays.fill(leaf.values, keep, leaf.count, null);
+		leaf.count = keep;
+		right.next = leaf.next;
+		if(right.next != null)
+			right.next.prev = right;
+		else
+			lastLeaf = right;
+		leaf.next = right;
+		right.prev = leaf;
+		insertIntoParent(height - 2, leaf, right.keys[0], right);
+	}
+
+	/**
+	 * Links a new right sibling of the child on the path at the given level,
+	 * splitting ancestors as needed.
+	 */
+	private void insertIntoParent(int level, Node left, Object separator, Node right) {
+		if(level < 0) {
+			Inner newRoot = new Inner(order);
+			newRoot.keys[0] = separator;
+			newRoot.children[0] = left;
+			newRoot.children[1] = right;
+			newRoot.count = 1;
+			root = newRoot;
+			height++;
+			if(path.length < height) {
+				path = Arrays.copyOf(path, height * 2);
+				slots = Arrays.copyOf(slots, height * 2);
+			}
+			return;
+		}
+		Inner parent = path[level];
+		int slot = slots[level];
+		insertAt(parent.keys, parent.count, slot, separator);
+		insertAt(parent.children, parent.count + 1, slot + 1, right);
+		parent.count++;
+		if(parent.count + 1 > order)
+			splitInner(level);
+	}
+
+	private void splitInner(int level) {
+		Inner node = path[level];
+		Inner right = new Inner(order);
+		int leftChildren = (node.count + 2) / 2;
+		Object separator = node.keys[leftChildren - 1];
+		right.count = node.count - leftChildren;
+		System.arraycopy(node.keys, leftChildren, right.keys, 0, right.count);
+		System.arraycopy(node.children, leftChildren, right.children, 0, right.count + 1);
+		Arrays.fill(node.keys, leftChildren - 1, node.count, null);
+		Arrays.fill(node.children, leftChildren, node.count + 1, null);
+		node.count = leftChildren - 1;
+		insertIntoParent(level - 1, node, separator, right);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public V remove(Object key) {
+		if(root == null)
+			return null;
+		Leaf leaf = findLeaf(key, true);
+		int index = indexOf(leaf, key);
+		if(index < 0)
+			return null;
+		V oldValue = (V) leaf.values[index];
+		removeAt(leaf.keys, leaf.count, index);
+		removeAt(leaf.values, leaf.count, index);
+		leaf.count--;
+		size--;
+		modCount++;
+		rebalanceLeaf(leaf);
+		return oldValue;
+	}
+
+	/**
+	 * Refills an underfull leaf from a sibling or merges it with one. A
+	 * separator equal to a removed key stays valid, so parents only change
+	 * when entries move between leaves.
+	 */
+	private void rebalanceLeaf(Leaf leaf) {
+		int level = height - 2;
+		if(level < 0) {
+			if(leaf.count == 0) {
+				root = firstLeaf = lastLeaf = null;
+				height = 0;
+			}
+			return;
+		}
+		if(leaf.count >= minimum)
+			return;
+		Inner parent = path[level];
+		int slot = slots[level];
+		Leaf left = slot > 0 ? (Leaf) parent.children[slot - 1] : null;
+		Leaf right = slot < parent.count ? (Leaf) parent.children[slot + 1] : null;
+		if(left != null && left.count > minimum) {
+			insertAt(leaf.keys, leaf.count, 0, left.keys[left.count - 1]);
+			insertAt(leaf.values, leaf.count, 0, left.values[left.count - 1]);
+			leaf.count++;
+			left.count--;
+			left.keys[left.count] = null;
+			left.values[left.count] = null;
+			parent.keys[slot - 1] = leaf.keys[0];
+		} else if(right != null && right.count > minimum) {
+			leaf.keys[leaf.count] = right.keys[0];
+			leaf.values[leaf.count] = right.values[0];
+			leaf.count++;
+			removeAt(right.keys, right.count, 0);
+			removeAt(right.values, right.count, 0);
+			right.count--;
+			parent.keys[slot] = right.keys[0];
+		} else if(left != null) {
+			mergeLeaves(left, leaf, level, slot - 1);
+		} else {
+			mergeLeaves(leaf, right, level, slot);
+		}
+	}
+
+	private void mergeLeaves(Leaf left, Leaf right, int level, int separator) {
+		System.arraycopy(right.keys, 0, left.keys, left.count, right.count);
+		System.arraycopy(right.values, 0, left.values, left.count, right.count);
+		left.count += right.count;
+		left.next = right.next;
+		if(left.next != null)
+			left.next.prev = left;
+		else
+			lastLeaf = left;
+		removeFromParent(level, separator);
+	}
+
+	/**
+	 * Removes the separator with the given index and the child to its right
+	 * from the inner node on the path at the given level.
+	 */
+	private void removeFromParent(int level, int separator) {
+		Inner parent = path[level];
+		removeAt(parent.keys, parent.count, separator);
+		removeAt(parent.children, parent.count + 1, separator + 1);
+		parent.count--;
+		rebalanceInner(level);
+	}
+
+	private void rebalanceInner(int level) {
+		Inner node = path[level];
+		if(level == 0) {
+			if(node.count == 0) {
+				root = node.children[0];
+				height--;
+			}
+			return;
+		}
+		if(node.count + 1 >= minimum)
+			return;
+		Inner parent = path[level - 1];
+		int slot = slots[level - 1];
+		Inner left = slot > 0 ? (Inner) parent.children[slot - 1] : null;
+		Inner right = slot < parent.count ? (Inner) parent.children[slot + 1] : null;
+		if(left != null && left.count + 1 > minimum) {
+			insertAt(node.keys, node.count, 0, parent.keys[slot - 1]);
+			insertAt(node.children, node.count + 1, 0, left.children[left.count]);
+			node.count++;
+			parent.keys[slot - 1] = left.keys[left.count - 1];
+			left.keys[left.count - 1] = null;
+			left.children[left.count] = null;
+			left.count--;
+		} else if(right != null && right.count + 1 > minimum) {
+			node.keys[node.count] = parent.keys[slot];
+			node.children[node.count + 1] = right.children[0];
+			node.count++;
+			parent.keys[slot] = right.keys[0];
+			removeAt(right.keys, right.count, 0);
+			removeAt(right.children, right.count + 1, 0);
+			right.count--;
+		} else if(left != null) {
+			mergeInner(left, node, level - 1, slot - 1);
+		} else {
+			mergeInner(node, right, level - 1, slot);
+		}
+	}
+
+	private void mergeInner(Inner left, Inner right, int parentLevel, int separator) {
+		left.keys[left.count] = path[parentLevel].keys[separator];
+		System.arraycopy(right.keys, 0, left.keys, left.count + 1, right.count);
+		System.arraycopy(right.children, 0, left.children, left.count + 1, right.count + 1);
+		left.count += right.count + 1;
+		removeFromParent(parentLevel, separator);
+	}
+
+	private static void insertAt(Object[] array, int length, int index, Object element) {
+		System.arraycopy(array, index, array, index + 1, length - index);
+		array[index] = element;
+	}
+
+	private static void removeAt(Object[] array, int length, int index) {
+		System.arraycopy(array, index + 1, array, index, length - index - 1);
+		array[length - 1] = null;
+	}
+
+	@Override
+	public void clear() {
+		modCount++;
+		root = firstLeaf = lastLeaf = null;
+		size = 0;
+		height = 0;
+		Arrays.fill(path, null);
+	}
+
+	@Override
+	public Comparator<? super K> comparator() {
+		return comparator;
+	}
+
+	private Entry<K, V> export(Cursor cursor) {
+		return cursor.leaf == null ? null : new SimpleImmutableEntry<>(cursor.key(), cursor.value());
+	}
+
+	private static <K> K keyOrNull(Entry<K, ?> entry) {
+		return entry == null ? null : entry.getKey();
+	}
+
+	private static <K> K keyOrThrow(Entry<K, ?> entry) {
+		if(entry == null) throw new NoSuchElementException();
+		return entry.getKey();
+	}
+
+	@Override
+	public Entry<K, V> firstEntry() {
+		return export(new Cursor(false));
+	}
+
+	@Override
+	public Entry<K, V> lastEntry() {
+		return export(new Cursor(true));
+	}
+
+	@Override
+	public K firstKey() {
+		return keyOrThrow(firstEntry());
+	}
+
+	@Override
+	public K lastKey() {
+		return keyOrThrow(lastEntry());
+	}
+
+	@Override
+	public Entry<K, V> pollFirstEntry() {
+		Entry<K, V> entry = firstEntry();
+		if(entry != null)
+			remove(entry.getKey());
+		return entry;
+	}
+
+	@Override
+	public Entry<K, V> pollLastEntry() {
+		Entry<K, V> entry = lastEntry();
+		if(entry != null)
+			remove(entry.getKey());
+		return entry;
+	}
+
+	@Override
+	public Entry<K, V> lowerEntry(K key) {
+		return export(new Cursor(key, false, true));
+	}
+
+	@Override
+	public K lowerKey(K key) {
+		return keyOrNull(lowerEntry(key));
+	}
+
+	@Override
+	public Entry<K, V> floorEntry(K key) {
+		return export(new Cursor(key, true, true));
+	}
+
+	@Override
+	public K floorKey(K key) {
+		return keyOrNull(floorEntry(key));
+	}
+
+	@Override
+	public Entry<K, V> ceilingEntry(K key) {
+		return export(new Cursor(key, true, false));
+	}
+
+	@Override
+	public K ceilingKey(K key) {
+		return keyOrNull(ceilingEntry(key));
+	}
+
+	@Override
+	public Entry<K, V> higherEntry(K key) {
+		return export(new Cursor(key, false, false));
+	}
+
+	@Override
+	public K higherKey(K key) {
+		return keyOrNull(higherEntry(key));
+	}
+
+	@Override
+	public NavigableMap<K, V> descendingMap() {
+		return new SubMap(true, null, false, true, null, false, true);
+	}
+
+	@Override
+	public NavigableSet<K> navigableKeySet() {
+		return new NavigableKeySet<>(this);
+	}
+
+	@Override
+	public Set<K> keySet() {
+		return navigableKeySet();
+	}
+
+	@Override
+	public NavigableSet<K> descendingKeySet() {
+		return descendingMap().navigableKeySet();
+	}
+
+	@Override
+	public NavigableMap<K, V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+		return new SubMap(false, fromKey, fromInclusive, false, toKey, toInclusive, false);
+	}
+
+	@Override
+	public NavigableMap<K, V> headMap(K toKey, boolean inclusive) {
+		return new SubMap(true, null, false, false, toKey, inclusive, false);
+	}
+
+	@Override
+	public NavigableMap<K, V> tailMap(K fromKey, boolean inclusive) {
+		return new SubMap(false, fromKey, inclusive, true, null, false, false);
+	}
+
+	@Override
+	public SortedMap<K, V> subMap(K fromKey, K toKey) {
+		return subMap(fromKey, true, toKey, false);
+	}
+
+	@Override
+	public SortedMap<K, V> headMap(K toKey) {
+		return headMap(toKey, false);
+	}
+
+	@Override
+	public SortedMap<K, V> tailMap(K fromKey) {
+		return tailMap(fromKey, true);
+	}
+
+	@Override
+	public Set<Entry<K, V>> entrySet() {
+		return new AbstractSet<Entry<K, V>>() {
+			@Override
+			public Iterator<Entry<K, V>> iterator() {
+				return new EntryIterator(new Cursor(false), false, null);
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+
+			@Override
+			public boolean contains(Object o) {
+				if(!(o instanceof Entry)) return false;
+				Entry<?, ?> entry = (Entry<?, ?>) o;
+				Object key = entry.getKey();
+				return containsKey(key) && Objects.equals(get(key), entry.getValue());
+			}
+
+			@Override
+			public boolean remove(Object o) {
+				if(!contains(o)) return false;
+				BTreeMyMap.this.remove(((Entry<?, ?>) o).getKey());
+				return true;
+			}
+
+			@Override
+			public void clear() {
+				BTreeMyMap.this.clear();
+			}
+		};
+	}
+
+	/**
+	 * @return the number of levels of the tree, leaves included
+	 */
+	public int height() {
+		return height;
+	}
+
+	/**
+	 * Verifies key order, node fill, that all leaves are on the same level
+	 * and that the leaf links visit every leaf in order.
+	 *
+	 * @throws IllegalStateException if the tree is corrupt
+	 */
+	public void checkInvariants() {
+		if(root == null) {
+			if(size != 0 || height != 0 || firstLeaf != null || lastLeaf != null)
+				throw new IllegalStateException("Empty tree with size " + size + " and height " + height);
+			return;
+		}
+		List<Leaf> leaves = new ArrayList<>();
+		checkNode(root, null, null, 1, leaves);
+		int count = 0;
+		Leaf previous = null;
+		Leaf expected = firstLeaf;
+		for(Leaf leaf : leaves) {
+			if(leaf != expected || leaf.prev != previous)
+				throw new IllegalStateException("Broken leaf links at " + leaf);
+			count += leaf.count;
+			previous = leaf;
+			expected = leaf.next;
+		}
+		if(expected != null || lastLeaf != previous)
+			throw new IllegalStateException("Leaf links do not end at the last leaf");
+		if(count != size)
+			throw new IllegalStateException("Size is " + size + " but the tree has " + count + " entries");
+	}
+
+	/**
+	 * @param lo the smallest key allowed in the subtree, or null for none
+	 * @param hi the key all keys in the subtree must be smaller than, or null for none
+	 */
+	private void checkNode(Node node, Object lo, Object hi, int depth, List<Leaf> leaves) {
+		boolean leaf = node instanceof Leaf;
+		int entries = leaf ? node.count : node.count + 1;
+		int min = node != root ? minimum : leaf ? 1 : 2;
+		if(entries < min || entries > order)
+			throw new IllegalStateException("Node with " + entries + " entries at depth " + depth + ": " + node);
+		for(int i = 0; i < node.count; i++) {
+			if(i > 0 && compare(node.keys[i - 1], node.keys[i]) >= 0)
+				throw new IllegalStateException("Keys out of order in " + node);
+			if(leaf && ((lo != null && compare(node.keys[i], lo) < 0) || (hi != null && compare(node.keys[i], hi) >= 0)))
+				throw new IllegalStateException("Key " + node.keys[i] + " outside of its separators");
+		}
+		if(leaf) {
+			if(depth != height)
+				throw new IllegalStateException("Leaf at depth " + depth + " in a tree of height " + height);
+			leaves.add((Leaf) node);
+			return;
+		}
+		Inner inner = (Inner) node;
+		for(int i = 0; i <= inner.count; i++)
+			checkNode(inner.children[i], i == 0 ? lo : inner.keys[i - 1], i == inner.count ? hi : inner.keys[i], depth + 1, leaves);
+	}
+
+	private static class Node {
+		final Object[] keys;
+		int count = 0;
+
+		Node(int capacity) {
+			keys = new Object[capacity];
+		}
+
+		@Override
+		public String toString() {
+			return Arrays.toString(Arrays.copyOf(keys, count));
+		}
+	}
+
+	private static final class Leaf extends Node {
+		final Object[] values;
+		Leaf prev = null;
+		Leaf next = null;
+
+		/**
+		 * One slot more than the order, for the entry that triggers a split
+		 */
+		Leaf(int order) {
+			super(order + 1);
+			values = new Object[order + 1];
+		}
+	}
+
+	private static final class Inner extends Node {
+		final Node[] children;
+
+		/**
+		 * Like leaves, with room for one key and child more than the order allows
+		 */
+		Inner(int order) {
+			super(order);
+			children = new Node[order + 1];
+		}
+	}
+
+	/**
+	 * A position in the leaves, or past either end if leaf is null.
+	 */
+	private final class Cursor {
+		private Leaf leaf;
+		private int index;
+
+		/**
+		 * Starts at the first entry, or the last if descending.
+		 */
+		Cursor(boolean descending) {
+			leaf = descending ? lastLeaf : firstLeaf;
+			index = descending && leaf != null ? leaf.count - 1 : 0;
+		}
+
+		/**
+		 * Starts at the first entry after the key in the given direction, or
+		 * at the key itself if inclusive.
+		 */
+		Cursor(Object key, boolean inclusive, boolean descending) {
+			if(root == null) {
+				compare(key, key);
+				return;
+			}
+			leaf = findLeaf(key, false);
+			int found = indexOf(leaf, key);
+			if(found >= 0)
+				index = inclusive ? found : descending ? found - 1 : found + 1;
+			else
+				index = descending ? -found - 2 : -found - 1;
+			normalize();
+		}
+
+		private void normalize() {
+			if(index >= leaf.count) {
+				leaf = leaf.next;
+				index = 0;
+			} else if(index < 0) {
+				leaf = leaf.prev;
+				index = leaf == null ? 0 : leaf.count - 1;
+			}
+		}
+
+		void step(boolean descending) {
+			index += descending ? -1 : 1;
+			normalize();
+		}
+
+		@SuppressWarnings("unchecked")
+		K key() {
+			return (K) leaf.keys[index];
+		}
+
+		@SuppressWarnings("unchecked")
+		V value() {
+			return (V) leaf.values[index];
+		}
+	}
+
+	private final class EntryIterator implements Iterator<Entry<K, V>> {
+		private final boolean descending;
+		private final NavigableSubMap<K, V> range;
+		private Cursor cursor;
+		private K lastReturned = null;
+		private boolean canRemove = false;
+		private int expectedModCount = modCount;
+
+		/**
+		 * @param range the view whose upper bound in iteration order ends the iteration, or null for the whole map
+		 */
+		EntryIterator(Cursor cursor, boolean descending, NavigableSubMap<K, V> range) {
+			this.cursor = cursor;
+			this.descending = descending;
+			this.range = range;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if(cursor.leaf == null)
+				return false;
+			return range == null || !(descending ? range.tooLow(cursor.key()) : range.tooHigh(cursor.key()));
+		}
+
+		@Override
+		public Entry<K, V> next() {
+			if(modCount != expectedModCount) throw new ConcurrentModificationException();
+			if(!hasNext()) throw new NoSuchElementException();
+			Entry<K, V> entry = new IteratorEntry(cursor.leaf, cursor.index);
+			lastReturned = entry.getKey();
+			canRemove = true;
+			cursor.step(descending);
+			return entry;
+		}
+
+		/**
+		 * Removing may move entries between leaves, so the iterator finds its
+		 * place again from the removed key.
+		 */
+		@Override
+		public void remove() {
+			if(!canRemove) throw new IllegalStateException();
+			if(modCount != expectedModCount) throw new ConcurrentModificationException();
+			BTreeMyMap.this.remove(lastReturned);
+			expectedModCount = modCount;
+			canRemove = false;
+			cursor = new Cursor(lastReturned, false, descending);
+		}
+	}
+
+	/**
+	 * An entry returned by an iterator. Setting its value writes into its
+	 * slot of the leaf while the map has not changed structurally since,
+	 * otherwise the key is looked up again. Once the key has been removed,
+	 * only this entry changes, like an entry of a {@link TreeMap}.
+	 */
+	private final class IteratorEntry extends SimpleEntry<K, V> {
+		private static final long serialVersionUID = 1L;
+
+		private final Leaf leaf;
+		private final int index;
+		private final int expectedModCount = modCount;
+
+		@SuppressWarnings("unchecked")
+		IteratorEntry(Leaf leaf, int index) {
+			super((K) leaf.keys[index], (V) leaf.values[index]);
+			this.leaf = leaf;
+			this.index = index;
+		}
+
+		@Override
+		public V setValue(V value) {
+			if(modCount == expectedModCount) {
+				leaf.values[index] = value;
+			} else if(root != null) {
+				Leaf current = findLeaf(getKey(), false);
+				int found = indexOf(current, getKey());
+				if(found >= 0)
+					current.values[found] = value;
+			}
+			return super.setValue(value);
+		}
+	}
+
+	/**
+	 * A range view that iterates along the leaf links.
+	 */
+	private class SubMap extends NavigableSubMap<K, V> {
+		SubMap(boolean fromStart, K lo, boolean loInclusive,
+		       boolean toEnd, K hi, boolean hiInclusive,
+		       boolean descending) {
+			super(BTreeMyMap.this, fromStart, lo, loInclusive, toEnd, hi, hiInclusive, descending);
+		}
+
+		@Override
+		NavigableSubMap<K, V> newView(boolean fromStart, K lo, boolean loInclusive,
+		                              boolean toEnd, K hi, boolean hiInclusive,
+		                              boolean descending) {
+			return new SubMap(fromStart, lo, loInclusive, toEnd, hi, hiInclusive, descending);
+		}
+
+		@Override
+		Iterator<Entry<K, V>> entryIterator() {
+			Cursor start;
+			if(descending)
+				start = toEnd ? new Cursor(true) : new Cursor(hi, hiInclusive, true);
+			else
+				start = fromStart ? new Cursor(false) : new Cursor(lo, loInclusive, false);
+			return new EntryIterator(start, descending, this);
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package net.htlgrieskirchen.aud2.map;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Converts keys or values to and from the bytes of a file written by
+ * {@link MyMap#save}. Null is not supported, the predefined codecs throw a
+ * {@link NullPointerException} for it.
+ *
+ * @param <T> the type of the encoded objects
+ */
+public interface Codec<T> {
+	Codec<Integer> INTEGER = new Codec<Integer>() {
+		@Override
+		public void write(Integer value, DataOutput out) throws IOException {
+			out.writeInt(value);
+		}
+
+		@Override
+		public Integer read(ByteBuffer in) {
+			return in.getInt();
+		}
+	};
+
+	Codec<Long> LONG = new Codec<Long>() {
+		@Override
+		public void write(Long value, DataOutput out) throws IOException {
+			out.writeLong(value);
+		}
+
+		@Override
+		public Long read(ByteBuffer in) {
+			return in.getLong();
+		}
+	};
+
+	/**
+	 * UTF-8 with a length prefix, so unlike {@link DataOutput#writeUTF} it has
+	 * no 64 KB limit
+	 */
+	Codec<String> STRING = new Codec<String>() {
+		@Override
+		public void write(String value, DataOutput out) throws IOException {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+
+		@Override
+		public String read(ByteBuffer in) {
+			byte[] bytes = new byte[in.getInt()];
+			in.get(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+	};
+
+	void write(T value, DataOutput out) throws IOException;
+
+	/**
+	 * Reads an object written by {@link #write} from the current position of
+	 * the buffer and moves the position past it.
+	 */
+	T read(ByteBuffer in);
+}
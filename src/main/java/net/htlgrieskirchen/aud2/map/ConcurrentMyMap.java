@@ -0,0 +1,624 @@
+package net.htlgrieskirchen.aud2.map;
+
+import net.htlgrieskirchen.aud2.map.PersistentTree.Node;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * A thread-safe sorted map for many concurrent readers.
+ * <p>
+ * The map holds an immutable AVL tree (see {@link PersistentTree}) in an
+ * {@link AtomicReference}. Reads take the current root with a single
+ * volatile read and never block or retry. A write copies the path to the
+ * changed key and publishes the new root with a compare-and-set, retrying
+ * if another write got in first, so every single-key operation is atomic.
+ * Like in a {@link java.util.concurrent.ConcurrentSkipListMap}, the functions
+ * passed to {@code compute} and {@code merge} may be called more than once
+ * under contention and should be free of side effects.
+ * <p>
+ * Iterators and views iterate over the snapshot taken when they were
+ * created and never throw {@link ConcurrentModificationException}. Entries
+ * returned by the map are immutable snapshots, and {@link #snapshot()}
+ * returns the whole map as of now in O(1). Neither keys nor values may be
+ * null.
+ *
+ * @param <K> the type of keys
+ * @param <V> the type of values
+ */
+public class ConcurrentMyMap<K, V> extends AbstractMap<K, V> implements ConcurrentNavigableMap<K, V> {
+	private final Comparator<? super K> comparator;
+	private final AtomicReference<Node<K, V>> root = new AtomicReference<>();
+
+	/**
+	 * Creates a map that orders its keys by their natural ordering.
+	 */
+	public ConcurrentMyMap() {
+		this(null);
+	}
+
+	/**
+	 * Creates a map that orders its keys with the given comparator, or by
+	 * their natural ordering if it is null.
+	 */
+	public ConcurrentMyMap(Comparator<? super K> comparator) {
+		this.comparator = comparator;
+	}
+
+	private Node<K, V> find(Object key) {
+		return PersistentTree.find(root.get(), Objects.requireNonNull(key), comparator);
+	}
+
+	/**
+	 * Publishes the updated tree if the root is still the one it was derived
+	 * from. An unchanged tree needs no publishing, the operation took effect
+	 * when the root was read.
+	 */
+	private boolean publish(Node<K, V> expected, Node<K, V> updated) {
+		return expected == updated || root.compareAndSet(expected, updated);
+	}
+
+	/**
+	 * @return the tree with the key mapped to the value, or without the key if the value is null
+	 */
+	private Node<K, V> update(Node<K, V> current, K key, V value) {
+		if(value == null)
+			return PersistentTree.remove(current, key, comparator);
+		return PersistentTree.put(current, key, value, comparator);
+	}
+
+	@Override
+	public int size() {
+		return PersistentTree.size(root.get());
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return root.get() == null;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return find(key) != null;
+	}
+
+	@Override
+	public V get(Object key) {
+		Node<K, V> node = find(key);
+		return node == null ? null : node.value;
+	}
+
+	@Override
+	public V put(K key, V value) {
+		Objects.requireNonNull(key);
+		Objects.requireNonNull(value);
+		while(true) {
+			Node<K, V> current = root.get();
+			Node<K, V> node = PersistentTree.find(current, key, comparator);
+			if(publish(current, PersistentTree.put(current, key, value, comparator)))
+				return node == null ? null : node.value;
+		}
+	}
+
+	@Override
+	public V remove(Object key) {
+		Objects.requireNonNull(key);
+		while(true) {
+			Node<K, V> current = root.get();
+			Node<K, V> node = PersistentTree.find(current, key, comparator);
+			if(node == null)
+				return null;
+			if(publish(current, PersistentTree.remove(current, key, comparator)))
+				return node.value;
+		}
+	}
+
+	@Override
+	public void clear() {
+		root.set(null);
+	}
+
+	@Override
+	public V putIfAbsent(K key, V value) {
+		Objects.requireNonNull(key);
+		Objects.requireNonNull(value);
+		while(true) {
+			Node<K, V> current = root.get();
+			Node<K, V> node = PersistentTree.find(current, key, comparator);
+			if(node != null)
+				return node.value;
+			if(publish(current, PersistentTree.put(current, key, value, comparator)))
+				return null;
+		}
+	}
+
+	@Override
+	public boolean remove(Object key, Object value) {
+		Objects.requireNonNull(key);
+		if(value == null)
+			return false;
+		while(true) {
+			Node<K, V> current = root.get();
+			Node<K, V> node = PersistentTree.find(current, key, comparator);
+			if(node == null || !value.equals(node.value))
+				return false;
+			if(publish(current, PersistentTree.remove(current, key, comparator)))
+				return true;
+		}
+	}
+
+	@Override
+	public boolean replace(K key, V oldValue, V newValue) {
+		Objects.requireNonNull(key);
+		Objects.requireNonNull(oldValue);
+		Objects.requireNonNull(newValue);
+		while(true) {
+			Node<K, V> current = root.get();
+			Node<K, V> node = PersistentTree.find(current, key, comparator);
+			if(node == null || !oldValue.equals(node.value))
+				return false;
+			if(publish(current, PersistentTree.put(current, key, newValue, comparator)))
+				return true;
+		}
+	}
+
+	@Override
+	public V replace(K key, V value) {
+		Objects.requireNonNull(key);
+		Objects.requireNonNull(value);
+		while(true) {
+			Node<K, V> current = root.get();
+			Node<K, V> node = PersistentTree.find(current, key, comparator);
+			if(node == null)
+				return null;
+			if(publish(current, PersistentTree.put(current, key, value, comparator)))
+				return node.value;
+		}
+	}
+
+	@Override
+	public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+		Objects.requireNonNull(key);
+		Objects.requireNonNull(mappingFunction);
+		while(true) {
+			Node<K, V> current = root.get();
+			Node<K, V> node = PersistentTree.find(current, key, comparator);
+			if(node != null)
+				return node.value;
+			V value = mappingFunction.apply(key);
+			if(value == null || publish(current, PersistentTree.put(current, key, value, comparator)))
+				return value;
+		}
+	}
+
+	@Override
+	public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+		Objects.requireNonNull(key);
+		Objects.requireNonNull(remappingFunction);
+		while(true) {
+			Node<K, V> current = root.get();
+			Node<K, V> node = PersistentTree.find(current, key, comparator);
+			if(node == null)
+				return null;
+			V value = remappingFunction.apply(key, node.value);
+			if(publish(current, update(current, key, value)))
+				return value;
+		}
+	}
+
+	@Override
+	public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+		Objects.requireNonNull(key);
+		Objects.requireNonNull(remappingFunction);
+		while(true) {
+			Node<K, V> current = root.get();
+			Node<K, V> node = PersistentTree.find(current, key, comparator);
+			V value = remappingFunction.apply(key, node == null ? null : node.value);
+			if(publish(current, update(current, key, value)))
+				return value;
+		}
+	}
+
+	@Override
+	public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+		Objects.requireNonNull(key);
+		Objects.requireNonNull(value);
+		Objects.requireNonNull(remappingFunction);
+		while(true) {
+			Node<K, V> current = root.get();
+			Node<K, V> node = PersistentTree.find(current, key, comparator);
+			V newValue = node == null ? value : remappingFunction.apply(node.value, value);
+			if(publish(current, update(current, key, newValue)))
+				return newValue;
+		}
+	}
+
+	@Override
+	public Comparator<? super K> comparator() {
+		return comparator;
+	}
+
+	@Override
+	public Entry<K, V> firstEntry() {
+		return PersistentTree.first(root.get());
+	}
+
+	@Override
+	public Entry<K, V> lastEntry() {
+		return PersistentTree.last(root.get());
+	}
+
+	@Override
+	public K firstKey() {
+		return keyOrThrow(firstEntry());
+	}
+
+	@Override
+	public K lastKey() {
+		return keyOrThrow(lastEntry());
+	}
+
+	@Override
+	public Entry<K, V> pollFirstEntry() {
+		while(true) {
+			Node<K, V> current = root.get();
+			Node<K, V> first = PersistentTree.first(current);
+			if(first == null || publish(current, PersistentTree.remove(current, first.key, comparator)))
+				return first;
+		}
+	}
+
+	@Override
+	public Entry<K, V> pollLastEntry() {
+		while(true) {
+			Node<K, V> current = root.get();
+			Node<K, V> last = PersistentTree.last(current);
+			if(last == null || publish(current, PersistentTree.remove(current, last.key, comparator)))
+				return last;
+		}
+	}
+
+	@Override
+	public Entry<K, V> lowerEntry(K key) {
+		return PersistentTree.highestBelow(root.get(), Objects.requireNonNull(key), false, comparator);
+	}
+
+	@Override
+	public K lowerKey(K key) {
+		return keyOrNull(lowerEntry(key));
+	}
+
+	@Override
+	public Entry<K, V> floorEntry(K key) {
+		return PersistentTree.highestBelow(root.get(), Objects.requireNonNull(key), true, comparator);
+	}
+
+	@Override
+	public K floorKey(K key) {
+		return keyOrNull(floorEntry(key));
+	}
+
+	@Override
+	public Entry<K, V> ceilingEntry(K key) {
+		return PersistentTree.lowestAbove(root.get(), Objects.requireNonNull(key), true, comparator);
+	}
+
+	@Override
+	public K ceilingKey(K key) {
+		return keyOrNull(ceilingEntry(key));
+	}
+
+	@Override
+	public Entry<K, V> higherEntry(K key) {
+		return PersistentTree.lowestAbove(root.get(), Objects.requireNonNull(key), false, comparator);
+	}
+
+	@Override
+	public K higherKey(K key) {
+		return keyOrNull(higherEntry(key));
+	}
+
+	private static <K> K keyOrNull(Entry<K, ?> entry) {
+		return entry == null ? null : entry.getKey();
+	}
+
+	private static <K> K keyOrThrow(Entry<K, ?> entry) {
+		if(entry == null) throw new NoSuchElementException();
+		return entry.getKey();
+	}
+
+	@Override
+	public ConcurrentNavigableMap<K, V> descendingMap() {
+		return new SubMap(true, null, false, true, null, false, true);
+	}
+
+	@Override
+	public NavigableSet<K> navigableKeySet() {
+		return new NavigableKeySet<>(this);
+	}
+
+	@Override
+	public NavigableSet<K> keySet() {
+		return navigableKeySet();
+	}
+
+	@Override
+	public NavigableSet<K> descendingKeySet() {
+		return descendingMap().navigableKeySet();
+	}
+
+	@Override
+	public ConcurrentNavigableMap<K, V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+		return new SubMap(false, fromKey, fromInclusive, false, toKey, toInclusive, false);
+	}
+
+	@Override
+	public ConcurrentNavigableMap<K, V> headMap(K toKey, boolean inclusive) {
+		return new SubMap(true, null, false, false, toKey, inclusive, false);
+	}
+
+	@Override
+	public ConcurrentNavigableMap<K, V> tailMap(K fromKey, boolean inclusive) {
+		return new SubMap(false, fromKey, inclusive, true, null, false, false);
+	}
+
+	@Override
+	public ConcurrentNavigableMap<K, V> subMap(K fromKey, K toKey) {
+		return subMap(fromKey, true, toKey, false);
+	}
+
+	@Override
+	public ConcurrentNavigableMap<K, V> headMap(K toKey) {
+		return headMap(toKey, false);
+	}
+
+	@Override
+	public ConcurrentNavigableMap<K, V> tailMap(K fromKey) {
+		return tailMap(fromKey, true);
+	}
+
+	@Override
+	public Set<Entry<K, V>> entrySet() {
+		return new AbstractSet<Entry<K, V>>() {
+			@Override
+			public Iterator<Entry<K, V>> iterator() {
+				return new EntryIterator(null);
+			}
+
+			@Override
+			public int size() {
+				return ConcurrentMyMap.this.size();
+			}
+
+			@Override
+			public boolean isEmpty() {
+				return ConcurrentMyMap.this.isEmpty();
+			}
+
+			@Override
+			public boolean contains(Object o) {
+				if(!(o instanceof Entry)) return false;
+				Entry<?, ?> entry = (Entry<?, ?>) o;
+				V value = get(entry.getKey());
+				return value != null && value.equals(entry.getValue());
+			}
+
+			@Override
+			public boolean remove(Object o) {
+				if(!(o instanceof Entry)) return false;
+				Entry<?, ?> entry = (Entry<?, ?>) o;
+				return ConcurrentMyMap.this.remove(entry.getKey(), entry.getValue());
+			}
+
+			@Override
+			public void clear() {
+				ConcurrentMyMap.this.clear();
+			}
+		};
+	}
+
+	/**
+	 * Returns the current contents as an immutable map in O(1). Later writes
+	 * to this map copy the nodes they change, so the snapshot never changes
+	 * and can be read from any thread without locking.
+	 */
+	public PersistentMyMap<K, V> snapshot() {
+		return new PersistentMyMap<>(comparator, root.get());
+	}
+
+	/**
+	 * @return the number of nodes on the longest path from the root to a leaf
+	 */
+	public int height() {
+		return PersistentTree.height(root.get());
+	}
+
+	/**
+	 * Verifies order, cached heights and sizes and AVL balance of the
+	 * current snapshot, like {@link MyMap#checkInvariants()}.
+	 *
+	 * @throws IllegalStateException if the tree is corrupt
+	 */
+	public void checkInvariants() {
+		PersistentTree.checkInvariants(root.get(), comparator);
+	}
+
+	/**
+	 * Iterates over the current snapshot. Removing goes through the live map.
+	 */
+	private class EntryIterator extends PersistentTree.EntryIterator<K, V> {
+		private Entry<K, V> lastReturned = null;
+
+		/**
+		 * @param range the view to iterate, or null for the whole map
+		 */
+		EntryIterator(NavigableSubMap<K, V> range) {
+			super(root.get(), range, comparator);
+		}
+
+		@Override
+		public Entry<K, V> next() {
+			return lastReturned = super.next();
+		}
+
+		@Override
+		public void remove() {
+			if(lastReturned == null) throw new IllegalStateException();
+			ConcurrentMyMap.this.remove(lastReturned.getKey());
+			lastReturned = null;
+		}
+	}
+
+	/**
+	 * A range view that iterates and counts on a single snapshot and keeps
+	 * the atomic operations of the map.
+	 */
+	private class SubMap extends NavigableSubMap<K, V> implements ConcurrentNavigableMap<K, V> {
+		SubMap(boolean fromStart, K lo, boolean loInclusive,
+		       boolean toEnd, K hi, boolean hiInclusive,
+		       boolean descending) {
+			super(ConcurrentMyMap.this, fromStart, lo, loInclusive, toEnd, hi, hiInclusive, descending);
+		}
+
+		@Override
+		SubMap newView(boolean fromStart, K lo, boolean loInclusive,
+		               boolean toEnd, K hi, boolean hiInclusive,
+		               boolean descending) {
+			return new SubMap(fromStart, lo, loInclusive, toEnd, hi, hiInclusive, descending);
+		}
+
+		@Override
+		Iterator<Entry<K, V>> entryIterator() {
+			return new EntryIterator(this);
+		}
+
+		@Override
+		public int size() {
+			return PersistentTree.countIn(root.get(), this, comparator);
+		}
+
+		@Override
+		public Entry<K, V> pollFirstEntry() {
+			return descending ? pollHighest() : pollLowest();
+		}
+
+		@Override
+		public Entry<K, V> pollLastEntry() {
+			return descending ? pollLowest() : pollHighest();
+		}
+
+		private Entry<K, V> pollLowest() {
+			while(true) {
+				Node<K, V> current = root.get();
+				Node<K, V> lowest = fromStart ? PersistentTree.first(current) : PersistentTree.lowestAbove(current, lo, loInclusive, comparator);
+				if(lowest == null || tooHigh(lowest.key))
+					return null;
+				if(publish(current, PersistentTree.remove(current, lowest.key, comparator)))
+					return lowest;
+			}
+		}
+
+		private Entry<K, V> pollHighest() {
+			while(true) {
+				Node<K, V> current = root.get();
+				Node<K, V> highest = toEnd ? PersistentTree.last(current) : PersistentTree.highestBelow(current, hi, hiInclusive, comparator);
+				if(highest == null || tooLow(highest.key))
+					return null;
+				if(publish(current, PersistentTree.remove(current, highest.key, comparator)))
+					return highest;
+			}
+		}
+
+		private void checkRange(Object key) {
+			if(!inRange(key))
+				throw new IllegalArgumentException("key out of range");
+		}
+
+		@Override
+		public V putIfAbsent(K key, V value) {
+			checkRange(key);
+			return ConcurrentMyMap.this.putIfAbsent(key, value);
+		}
+
+		@Override
+		public boolean remove(Object key, Object value) {
+			return inRange(key) && ConcurrentMyMap.this.remove(key, value);
+		}
+
+		@Override
+		public boolean replace(K key, V oldValue, V newValue) {
+			return inRange(key) && ConcurrentMyMap.this.replace(key, oldValue, newValue);
+		}
+
+		@Override
+		public V replace(K key, V value) {
+			return inRange(key) ? ConcurrentMyMap.this.replace(key, value) : null;
+		}
+
+		@Override
+		public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+			checkRange(key);
+			return ConcurrentMyMap.this.computeIfAbsent(key, mappingFunction);
+		}
+
+		@Override
+		public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+			return inRange(key) ? ConcurrentMyMap.this.computeIfPresent(key, remappingFunction) : null;
+		}
+
+		@Override
+		public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+			checkRange(key);
+			return ConcurrentMyMap.this.compute(key, remappingFunction);
+		}
+
+		@Override
+		public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+			checkRange(key);
+			return ConcurrentMyMap.this.merge(key, value, remappingFunction);
+		}
+
+		@Override
+		public ConcurrentNavigableMap<K, V> descendingMap() {
+			return (SubMap) super.descendingMap();
+		}
+
+		@Override
+		public NavigableSet<K> keySet() {
+			return navigableKeySet();
+		}
+
+		@Override
+		public ConcurrentNavigableMap<K, V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+			return (SubMap) super.subMap(fromKey, fromInclusive, toKey, toInclusive);
+		}
+
+		@Override
+		public ConcurrentNavigableMap<K, V> headMap(K toKey, boolean inclusive) {
+			return (SubMap) super.headMap(toKey, inclusive);
+		}
+
+		@Override
+		public ConcurrentNavigableMap<K, V> tailMap(K fromKey, boolean inclusive) {
+			return (SubMap) super.tailMap(fromKey, inclusive);
+		}
+
+		@Override
+		public ConcurrentNavigableMap<K, V> subMap(K fromKey, K toKey) {
+			return subMap(fromKey, true, toKey, false);
+		}
+
+		@Override
+		public ConcurrentNavigableMap<K, V> headMap(K toKey) {
+			return headMap(toKey, false);
+		}
+
+		@Override
+		public ConcurrentNavigableMap<K, V> tailMap(K fromKey) {
+			return tailMap(fromKey, true);
+		}
+	}
+}
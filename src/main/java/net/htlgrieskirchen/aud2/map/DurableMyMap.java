@@ -0,0 +1,393 @@
+package net.htlgrieskirchen.aud2.map;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * A {@link MyMap} whose modifications survive crashes.
+ * <p>
+ * Every put, remove and clear is appended to a write-ahead log in the map's
+ * directory before it is applied. With an fsync interval of 0 each
+ * modification is forced to disk before it returns. With a positive
+ * interval, records collect in memory and a background thread writes and
+ * forces them together once per interval (group commit), so a crash loses
+ * at most that interval of modifications.
+ * <p>
+ * A checkpoint saves the whole map in the format of {@link MyMap#save} and
+ * then empties the log; checkpoints run in the background at their own
+ * interval or on {@link #checkpoint()}. Opening a directory loads the last
+ * checkpoint and replays the log onto it, stopping at the first torn or
+ * corrupt record. Log records only ever set or remove keys, so replaying a
+ * log onto a checkpoint that already contains some of its records, after a
+ * crash between saving a checkpoint and emptying the log, gives the same
+ * result.
+ * <p>
+ * All methods are synchronized on the map. Values must not be null.
+ *
+ * @param <K> the type of keys
+ * @param <V> the type of values
+ */
+public class DurableMyMap<K, V> extends AbstractMap<K, V> implements Closeable {
+	static final String CHECKPOINT = "checkpoint";
+	static final String LOG = "wal";
+
+	private static final byte PUT = 1;
+	private static final byte REMOVE = 2;
+	private static final byte CLEAR = 3;
+
+	private final Path directory;
+	private final Codec<K> keyCodec;
+	private final Codec<V> valueCodec;
+	private final MyMap<K, V> map;
+	private final FileChannel log;
+	private final boolean syncEachRecord;
+	private final ScheduledExecutorService background;
+
+	private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+	private final DataOutputStream recordOut = new DataOutputStream(record);
+	private final CRC32 crc = new CRC32();
+	/**
+	 * Framed records not yet written to the log
+	 */
+	private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+	private final DataOutputStream pendingOut = new DataOutputStream(pending);
+	/**
+	 * The first failure of a background sync or checkpoint, rethrown by the next modification
+	 */
+	private IOException backgroundFailure = null;
+
+	private DurableMyMap(Path directory, Comparator<? super K> comparator, Codec<K> keyCodec, Codec<V> valueCodec,
+	                     long fsyncIntervalMillis, long checkpointIntervalMillis) throws IOException {
+		this.directory = directory;
+		this.keyCodec = keyCodec;
+		this.valueCodec = valueCodec;
+		this.map = new MyMap<>(comparator, true);
+		this.syncEachRecord = fsyncIntervalMillis == 0;
+
+		Path checkpoint = directory.resolve(CHECKPOINT);
+		if(Files.exists(checkpoint))
+			map.putAll(MyMap.open(checkpoint, comparator, keyCodec, valueCodec));
+		log = FileChannel.open(directory.resolve(LOG), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		long valid = replay();
+		log.truncate(valid);
+		log.position(valid);
+
+		if(fsyncIntervalMillis > 0 || checkpointIntervalMillis > 0) {
+			background = Executors.newSingleThreadScheduledExecutor(task -> {
+				Thread thread = new Thread(task, "DurableMyMap " + directory);
+				thread.setDaemon(true);
+				return thread;
+			});
+			if(fsyncIntervalMillis > 0)
+				background.scheduleWithFixedDelay(() -> runInBackground(false), fsyncIntervalMillis, fsyncIntervalMillis, TimeUnit.MILLISECONDS);
+			if(checkpointIntervalMillis > 0)
+				background.scheduleWithFixedDelay(() -> runInBackground(true), checkpointIntervalMillis, checkpointIntervalMillis, TimeUnit.MILLISECONDS);
+		} else {
+			background = null;
+		}
+	}
+
+	/**
+	 * Opens or creates a durable map in the given directory, ordered by the
+	 * natural ordering of its keys.
+	 *
+	 * @see #open(Path, Comparator, Codec, Codec, long, long)
+	 */
+	public static <K extends Comparable<? super K>, V> DurableMyMap<K, V> open(Path directory, Codec<K> keyCodec, Codec<V> valueCodec,
+	                                                                          long fsyncIntervalMillis, long checkpointIntervalMillis) throws IOException {
+		return open(directory, null, keyCodec, valueCodec, fsyncIntervalMillis, checkpointIntervalMillis);
+	}
+
+	/**
+	 * Opens or creates a durable map in the given directory and recovers
+	 * its contents from the last checkpoint and the log.
+	 *
+	 * @param fsyncIntervalMillis      0 to force every modification to disk before it returns,
+	 *                                 otherwise the interval of group commits
+	 * @param checkpointIntervalMillis the interval of background checkpoints, or 0 for none
+	 */
+	public static <K, V> DurableMyMap<K, V> open(Path directory, Comparator<? super K> comparator, Codec<K> keyCodec, Codec<V> valueCodec,
+	                                             long fsyncIntervalMillis, long checkpointIntervalMillis) throws IOException {
+		if(fsyncIntervalMillis < 0 || checkpointIntervalMillis < 0)
+			throw new IllegalArgumentException("Intervals must not be negative");
+		Files.createDirectories(directory);
+		return new DurableMyMap<>(directory, comparator, keyCodec, valueCodec, fsyncIntervalMillis, checkpointIntervalMillis);
+	}
+
+	/**
+	 * Applies the records of the log to the map.
+	 *
+	 * @return the length of the log up to the first incomplete or corrupt record
+	 */
+	private long replay() throws IOException {
+		ByteBuffer in = ByteBuffer.allocate((int) log.size());
+		while(in.hasRemaining()) {
+			if(log.read(in, in.position()) < 0)
+				break;
+		}
+		in.flip();
+		while(in.remaining() >= 2 * Integer.BYTES) {
+			int start = in.position();
+			int length = in.getInt();
+			int checksum = in.getInt();
+			if(length <= 0 || length > in.remaining())
+				return start;
+			crc.reset();
+			crc.update(in.array(), in.position(), length);
+			if((int) crc.getValue() != checksum)
+				return start;
+			ByteBuffer payload = in.slice();
+			payload.limit(length);
+			in.position(in.position() + length);
+			if(!apply(payload))
+				return start;
+		}
+		return in.position();
+	}
+
+	/**
+	 * @return false if the record cannot be decoded or applied, so it is treated as corrupt
+	 */
+	private boolean apply(ByteBuffer payload) {
+		try {
+			byte operation = payload.get();
+			if(operation == PUT) {
+				K key = keyCodec.read(payload);
+				map.put(key, valueCodec.read(payload));
+			} else if(operation == REMOVE) {
+				map.remove(keyCodec.read(payload));
+			} else if(operation == CLEAR) {
+				map.clear();
+			} else {
+				return false;
+			}
+			return true;
+		} catch(RuntimeException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Encodes a record without queueing it yet, so a key or value that the
+	 * codecs reject leaves the log untouched.
+	 */
+	private void encode(byte operation, K key, V value) {
+		if(backgroundFailure != null)
+			throw new UncheckedIOException("Background sync or checkpoint failed", backgroundFailure);
+		try {
+			record.reset();
+			recordOut.writeByte(operation);
+			if(operation != CLEAR)
+				keyCodec.write(key, recordOut);
+			if(operation == PUT)
+				valueCodec.write(value, recordOut);
+		} catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Frames the encoded record with its length and checksum and queues it,
+	 * or writes it through if every record is forced on its own. Called once
+	 * the record has been applied to the map.
+	 */
+	private void append() {
+		try {
+			crc.reset();
+			crc.update(record.toByteArray());
+			pendingOut.writeInt(record.size());
+			pendingOut.writeInt((int) crc.getValue());
+			record.writeTo(pendingOut);
+			if(syncEachRecord)
+				sync();
+		} catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private synchronized void runInBackground(boolean checkpoint) {
+		if(backgroundFailure != null || !log.isOpen())
+			return;
+		try {
+			if(checkpoint)
+				checkpoint();
+			else
+				sync();
+		} catch(IOException e) {
+			backgroundFailure = e;
+		}
+	}
+
+	/**
+	 * Writes all queued records to the log and forces them to disk.
+	 */
+	public synchronized void sync() throws IOException {
+		if(pending.size() == 0)
+			return;
+		pending.writeTo(Channels.newOutputStream(log));
+		pending.reset();
+		log.force(false);
+	}
+
+	/**
+	 * Saves the whole map next to the log and then empties the log. The
+	 * checkpoint replaces the previous one atomically once it is on disk,
+	 * and the log is only emptied once the directory entry of the new
+	 * checkpoint is on disk as well.
+	 */
+	public synchronized void checkpoint() throws IOException {
+		Path temporary = directory.resolve(CHECKPOINT + ".tmp");
+		map.save(temporary, keyCodec, valueCodec);
+		try(FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+			channel.force(true);
+		}
+		Files.move(temporary, directory.resolve(CHECKPOINT), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		//Otherwise a power loss could keep the emptied log but lose the rename
+		try(FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+			channel.force(true);
+		}
+		pending.reset();
+		log.truncate(0);
+		log.force(true);
+	}
+
+	/**
+	 * Writes and forces all queued records and stops the background thread.
+	 * No checkpoint is taken, the next {@link #open} replays the log.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if(!log.isOpen())
+			return;
+		if(background != null)
+			background.shutdown();
+		try {
+			sync();
+		} finally {
+			log.close();
+		}
+	}
+
+	/**
+	 * Stops like a killed process would: queued records are lost and
+	 * nothing is forced.
+	 */
+	synchronized void crash() throws IOException {
+		if(background != null)
+			background.shutdownNow();
+		pending.reset();
+		log.close();
+	}
+
+	@Override
+	public synchronized int size() {
+		return map.size();
+	}
+
+	@Override
+	public synchronized boolean containsKey(Object key) {
+		return map.containsKey(key);
+	}
+
+	@Override
+	public synchronized V get(Object key) {
+		return map.get(key);
+	}
+
+	@Override
+	public synchronized V put(K key, V value) {
+		Objects.requireNonNull(value);
+		encode(PUT, key, value);
+		//Compares the key first, a key the map rejects must never reach the log
+		V oldValue = map.put(key, value);
+		append();
+		return oldValue;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public synchronized V remove(Object key) {
+		if(!map.containsKey(key))
+			return null;
+		encode(REMOVE, (K) key, null);
+		V oldValue = map.remove(key);
+		append();
+		return oldValue;
+	}
+
+	@Override
+	public synchronized void clear() {
+		encode(CLEAR, null, null);
+		map.clear();
+		append();
+	}
+
+	/**
+	 * A view whose iterators and entries log the changes made through them.
+	 * Iterating is not synchronized, like iterating a
+	 * {@link Collections#synchronizedMap}.
+	 */
+	@Override
+	public Set<Entry<K, V>> entrySet() {
+		return new AbstractSet<Entry<K, V>>() {
+			@Override
+			public Iterator<Entry<K, V>> iterator() {
+				Iterator<Entry<K, V>> iterator = map.entrySet().iterator();
+				return new Iterator<Entry<K, V>>() {
+					private K lastReturned = null;
+					private boolean canRemove = false;
+
+					@Override
+					public boolean hasNext() {
+						return iterator.hasNext();
+					}
+
+					@Override
+					public Entry<K, V> next() {
+						Entry<K, V> entry = iterator.next();
+						lastReturned = entry.getKey();
+						canRemove = true;
+						return new SimpleEntry<K, V>(entry) {
+							@Override
+							public V setValue(V value) {
+								put(getKey(), value);
+								return super.setValue(value);
+							}
+						};
+					}
+
+					@Override
+					public void remove() {
+						if(!canRemove) throw new IllegalStateException();
+						canRemove = false;
+						synchronized(DurableMyMap.this) {
+							encode(REMOVE, lastReturned, null);
+							iterator.remove();
+							append();
+						}
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return DurableMyMap.this.size();
+			}
+		};
+	}
+}
@@ -0,0 +1,291 @@
+package net.htlgrieskirchen.aud2.map;
+
+import java.util.NoSuchElementException;
+
+/**
+ * A map from primitive {@code int} keys to values, for maps too large or
+ * too hot for boxed keys.
+ * <p>
+ * Keys are stored unboxed in the nodes and compared with plain {@code <}
+ * and {@code >}, so neither lookups nor inserts allocate a key object or
+ * dispatch to {@code compareTo}. The tree is always AVL-balanced, like a
+ * {@link MyMap} created in balanced mode. Nodes are static nested objects
+ * without subtree sizes, which keeps each entry small.
+ *
+ * @param <V> the type of values
+ * @see LongMyMap
+ */
+public class IntMyMap<V> {
+	private Node<V> root = null;
+	private int size = 0;
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return root == null;
+	}
+
+	public boolean containsKey(int key) {
+		return find(key) != null;
+	}
+
+	public V get(int key) {
+		Node<V> node = find(key);
+		return node == null ? null : node.value;
+	}
+
+	/**
+	 * @return the previous value of the key, or null if it was not in the map
+	 */
+	public V put(int key, V value) {
+		if(root == null) {
+			root = new Node<>(key, value, null);
+			size++;
+			return null;
+		}
+		Node<V> current = root;
+		while(true) {
+			if(key < current.key) {
+				if(current.left == null) {
+					current.left = new Node<>(key, value, current);
+					break;
+				}
+				current = current.left;
+			} else if(key > current.key) {
+				if(current.right == null) {
+					current.right = new Node<>(key, value, current);
+					break;
+				}
+				current = current.right;
+			} else {
+				V oldValue = current.value;
+				current.value = value;
+				return oldValue;
+			}
+		}
+		size++;
+		fixAfterModification(current);
+		return null;
+	}
+
+	/**
+	 * @return the value of the removed key, or null if it was not in the map
+	 */
+	public V remove(int key) {
+		Node<V> node = find(key);
+		if(node == null)
+			return null;
+		unlink(node);
+		return node.value;
+	}
+
+	public void clear() {
+		root = null;
+		size = 0;
+	}
+
+	/**
+	 * @throws NoSuchElementException if the map is empty
+	 */
+	public int firstKey() {
+		if(root == null) throw new NoSuchElementException();
+		return first(root).key;
+	}
+
+	/**
+	 * @throws NoSuchElementException if the map is empty
+	 */
+	public int lastKey() {
+		if(root == null) throw new NoSuchElementException();
+		Node<V> node = root;
+		while(node.right != null)
+			node = node.right;
+		return node.key;
+	}
+
+	/**
+	 * Calls the action for every entry in ascending key order.
+	 */
+	public void forEach(EntryConsumer<? super V> action) {
+		for(Node<V> node = root == null ? null : first(root); node != null; node = successor(node))
+			action.accept(node.key, node.value);
+	}
+
+	/**
+	 * @return the number of nodes on the longest path from the root to a leaf
+	 */
+	public int height() {
+		return height(root);
+	}
+
+	/**
+	 * Verifies order, parent links, cached heights and AVL balance of the
+	 * whole tree, like {@link MyMap#checkInvariants()}.
+	 *
+	 * @throws IllegalStateException if the tree is corrupt
+	 */
+	public void checkInvariants() {
+		if(root != null && root.parent != null)
+			throw new IllegalStateException("Root has a parent");
+		int count = 0;
+		Node<V> previous = null;
+		for(Node<V> node = root == null ? null : first(root); node != null; node = successor(node)) {
+			if(previous != null && previous.key >= node.key)
+				throw new IllegalStateException("Keys out of order: " + previous.key + " before " + node.key);
+			if((node.left != null && node.left.parent != node) || (node.right != null && node.right.parent != node))
+				throw new IllegalStateException("Broken parent link below " + node.key);
+			if(node.height != 1 + Math.max(height(node.left), height(node.right)))
+				throw new IllegalStateException("Stale height at " + node.key);
+			if(Math.abs(height(node.left) - height(node.right)) > 1)
+				throw new IllegalStateException("Unbalanced at " + node.key);
+			previous = node;
+			count++;
+		}
+		if(count != size)
+			throw new IllegalStateException("Size is " + size + " but the tree has " + count + " entries");
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("{");
+		forEach((key, value) -> sb.append(key).append("=").append(value).append(", "));
+		if(size > 0)
+			sb.setLength(sb.length() - 2);
+		return sb.append("}").toString();
+	}
+
+	private Node<V> find(int key) {
+		Node<V> node = root;
+		while(node != null) {
+			if(key < node.key)
+				node = node.left;
+			else if(key > node.key)
+				node = node.right;
+			else
+				return node;
+		}
+		return null;
+	}
+
+	private void unlink(Node<V> node) {
+		Node<V> fixFrom;
+		if(node.left == null || node.right == null) {
+			fixFrom = node.parent;
+			replace(node, node.left == null ? node.right : node.left);
+		} else {
+			Node<V> successor = first(node.right);
+			if(successor.parent != node) {
+				fixFrom = successor.parent;
+				replace(successor, successor.right);
+				successor.right = node.right;
+				successor.right.parent = successor;
+			} else {
+				fixFrom = successor;
+			}
+			replace(node, successor);
+			successor.left = node.left;
+			successor.left.parent = successor;
+		}
+		node.parent = node.left = node.right = null;
+		size--;
+		if(fixFrom != null)
+			fixAfterModification(fixFrom);
+	}
+
+	private void replace(Node<V> node, Node<V> replacement) {
+		if(node.parent == null)
+			root = replacement;
+		else if(node.parent.left == node)
+			node.parent.left = replacement;
+		else
+			node.parent.right = replacement;
+		if(replacement != null)
+			replacement.parent = node.parent;
+	}
+
+	private void fixAfterModification(Node<V> node) {
+		for(; node != null; node = node.parent) {
+			node.height = 1 + Math.max(height(node.left), height(node.right));
+			int balance = height(node.left) - height(node.right);
+			if(balance > 1) {
+				if(height(node.left.left) < height(node.left.right))
+					rotateLeft(node.left);
+				node = rotateRight(node);
+			} else if(balance < -1) {
+				if(height(node.right.right) < height(node.right.left))
+					rotateRight(node.right);
+				node = rotateLeft(node);
+			}
+		}
+	}
+
+	private Node<V> rotateLeft(Node<V> node) {
+		Node<V> pivot = node.right;
+		replace(node, pivot);
+		node.right = pivot.left;
+		if(node.right != null)
+			node.right.parent = node;
+		pivot.left = node;
+		node.parent = pivot;
+		node.height = 1 + Math.max(height(node.left), height(node.right));
+		pivot.height = 1 + Math.max(height(pivot.left), height(pivot.right));
+		return pivot;
+	}
+
+	private Node<V> rotateRight(Node<V> node) {
+		Node<V> pivot = node.left;
+		replace(node, pivot);
+		node.left = pivot.right;
+		if(node.left != null)
+			node.left.parent = node;
+		pivot.right = node;
+		node.parent = pivot;
+		node.height = 1 + Math.max(height(node.left), height(node.right));
+		pivot.height = 1 + Math.max(height(pivot.left), height(pivot.right));
+		return pivot;
+	}
+
+	private static int height(Node<?> node) {
+		return node == null ? 0 : node.height;
+	}
+
+	private static <V> Node<V> first(Node<V> node) {
+		while(node.left != null)
+			node = node.left;
+		return node;
+	}
+
+	private static <V> Node<V> successor(Node<V> node) {
+		if(node.right != null)
+			return first(node.right);
+		Node<V> child = node;
+		Node<V> parent = node.parent;
+		while(parent != null && parent.right == child) {
+			child = parent;
+			parent = parent.parent;
+		}
+		return parent;
+	}
+
+	@FunctionalInterface
+	public interface EntryConsumer<V> {
+		void accept(int key, V value);
+	}
+
+	private static final class Node<V> {
+		private final int key;
+		private V value;
+		private Node<V> parent;
+		private Node<V> left;
+		private Node<V> right;
+		private int height = 1;
+
+		private Node(int key, V value, Node<V> parent) {
+			this.key = key;
+			this.value = value;
+			this.parent = parent;
+		}
+	}
+}
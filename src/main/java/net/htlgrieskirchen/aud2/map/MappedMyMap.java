@@ -0,0 +1,508 @@
+package net.htlgrieskirchen.aud2.map;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * A read-only sorted map served straight from a memory-mapped file written
+ * by {@link MyMap#save}.
+ * <p>
+ * The file holds the entries in key order, cut into blocks of
+ * {@value #BLOCK_SIZE}, followed by the offset of every block and a footer:
+ * <pre>
+ * entries:  key value key value ...   (encoded by the codecs)
+ * index:    int offset of each block
+ * footer:   int magic, int version, int size, int block size, int index offset
+ * </pre>
+ * Opening maps the file and reads only the footer. A lookup binary-searches
+ * the blocks by their first key and decodes at most one block, so nothing is
+ * deserialized up front and the operating system pages in only what is
+ * used. The file must stay below 2 GB, the limit of a single mapping.
+ * <p>
+ * The methods of {@link Map} that would modify the map throw
+ * {@link UnsupportedOperationException}.
+ *
+ * @param <K> the type of keys
+ * @param <V> the type of values
+ */
+public class MappedMyMap<K, V> extends AbstractMap<K, V> implements NavigableMap<K, V> {
+	static final int BLOCK_SIZE = 64;
+
+	private static final int MAGIC = 0x4D794D61; //"MyMa"
+	private static final int VERSION = 1;
+	private static final int FOOTER_BYTES = 5 * Integer.BYTES;
+
+	private final ByteBuffer data;
+	private final Comparator<? super K> comparator;
+	private final Codec<K> keyCodec;
+	private final Codec<V> valueCodec;
+	private final int size;
+	private final int blockSize;
+	private final int blockCount;
+	private final int indexOffset;
+
+	private MappedMyMap(ByteBuffer data, Comparator<? super K> comparator, Codec<K> keyCodec, Codec<V> valueCodec,
+	                    int size, int blockSize, int indexOffset) {
+		this.data = data;
+		this.comparator = comparator;
+		this.keyCodec = keyCodec;
+		this.valueCodec = valueCodec;
+		this.size = size;
+		this.blockSize = blockSize;
+		this.blockCount = (size + blockSize - 1) / blockSize;
+		this.indexOffset = indexOffset;
+	}
+
+	/**
+	 * Writes the entries, which have to be in ascending key order, in the
+	 * format read by {@link #open}. They are written to a temporary file next
+	 * to the path, which only replaces the path once it is complete.
+	 *
+	 * @param size the number of entries
+	 * @throws NullPointerException if a key or value is null, the path is left unchanged
+	 */
+	static <K, V> void write(Path path, Iterable<? extends Entry<? extends K, ? extends V>> entries, int size,
+	                         Codec<? super K> keyCodec, Codec<? super V> valueCodec) throws IOException {
+		Path directory = path.toAbsolutePath().getParent();
+		Path temporary = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+		try {
+			writeEntries(temporary, entries, size, keyCodec, valueCodec);
+			Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+	}
+
+	private static <K, V> void writeEntries(Path path, Iterable<? extends Entry<? extends K, ? extends V>> entries, int size,
+	                                        Codec<? super K> keyCodec, Codec<? super V> valueCodec) throws IOException {
+		int[] offsets = new int[(size + BLOCK_SIZE - 1) / BLOCK_SIZE];
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+			int count = 0;
+			for(Entry<? extends K, ? extends V> entry : entries) {
+				if(count == size)
+					throw new ConcurrentModificationException();
+				if(count % BLOCK_SIZE == 0)
+					offsets[count / BLOCK_SIZE] = checkedSize(out);
+				keyCodec.write(Objects.requireNonNull(entry.getKey(), "null keys cannot be saved"), out);
+				valueCodec.write(Objects.requireNonNull(entry.getValue(), "null values cannot be saved"), out);
+				count++;
+			}
+			if(count != size)
+				throw new ConcurrentModificationException();
+			int indexOffset = checkedSize(out);
+			for(int offset : offsets)
+				out.writeInt(offset);
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(size);
+			out.writeInt(BLOCK_SIZE);
+			out.writeInt(indexOffset);
+			checkedSize(out);
+		}
+	}
+
+	/**
+	 * DataOutputStream stops counting at Integer.MAX_VALUE
+	 */
+	private static int checkedSize(DataOutputStream out) throws IOException {
+		if(out.size() == Integer.MAX_VALUE)
+			throw new IOException("Map files are limited to 2 GB");
+		return out.size();
+	}
+
+	/**
+	 * Maps a file written by {@link MyMap#save}. The comparator has to order
+	 * the keys like the map that was saved.
+	 *
+	 * @throws IOException if the file cannot be read or was not written by {@link MyMap#save}
+	 */
+	static <K, V> MappedMyMap<K, V> open(Path path, Comparator<? super K> comparator,
+	                                     Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long length = channel.size();
+			if(length < FOOTER_BYTES || length >= Integer.MAX_VALUE)
+				throw new IOException("Not a map file: " + path);
+			ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+			int footer = (int) length - FOOTER_BYTES;
+			if(data.getInt(footer) != MAGIC)
+				throw new IOException("Not a map file: " + path);
+			if(data.getInt(footer + 4) != VERSION)
+				throw new IOException("Unsupported map file version " + data.getInt(footer + 4) + ": " + path);
+			int size = data.getInt(footer + 8);
+			int blockSize = data.getInt(footer + 12);
+			int indexOffset = data.getInt(footer + 16);
+			if(size < 0 || blockSize <= 0 || indexOffset < 0
+					|| indexOffset + ((long) size + blockSize - 1) / blockSize * Integer.BYTES > footer)
+				throw new IOException("Corrupt map file: " + path);
+			return new MappedMyMap<>(data, comparator, keyCodec, valueCodec, size, blockSize, indexOffset);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private int compare(Object key1, Object key2) {
+		if(comparator == null)
+			return ((Comparable<Object>) key1).compareTo(key2);
+		return comparator.compare((K) key1, (K) key2);
+	}
+
+	/**
+	 * @return a buffer positioned at the first entry of the block, with its own position
+	 */
+	private ByteBuffer block(int block) {
+		ByteBuffer in = data.duplicate();
+		in.position(data.getInt(indexOffset + block * Integer.BYTES));
+		return in;
+	}
+
+	private int blockLength(int block) {
+		return block == blockCount - 1 ? size - block * blockSize : blockSize;
+	}
+
+	/**
+	 * @return the last block whose first key is smaller than the given one
+	 * (or equal to it if inclusive), or -1 if there is none
+	 */
+	private int lastBlockBelow(Object key, boolean inclusive) {
+		int lo = 0;
+		int hi = blockCount - 1;
+		while(lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int comparison = compare(keyCodec.read(block(mid)), key);
+			if(comparison < 0 || (comparison == 0 && inclusive))
+				lo = mid + 1;
+			else
+				hi = mid - 1;
+		}
+		return hi;
+	}
+
+	/**
+	 * @return the number of keys smaller than the given one (or equal to it if inclusive)
+	 */
+	private int countBelow(Object key, boolean inclusive) {
+		if(size == 0) {
+			compare(key, key);
+			return 0;
+		}
+		int block = lastBlockBelow(key, inclusive);
+		if(block < 0)
+			return 0;
+		ByteBuffer in = block(block);
+		int length = blockLength(block);
+		int count = 1;
+		keyCodec.read(in);
+		valueCodec.read(in);
+		while(count < length) {
+			int comparison = compare(keyCodec.read(in), key);
+			if(comparison > 0 || (comparison == 0 && !inclusive))
+				break;
+			valueCodec.read(in);
+			count++;
+		}
+		return block * blockSize + count;
+	}
+
+	/**
+	 * @return the entry with the given index in key order, or null if it is out of bounds
+	 */
+	private Entry<K, V> entryAt(int index) {
+		if(index < 0 || index >= size)
+			return null;
+		ByteBuffer in = block(index / blockSize);
+		for(int skip = index % blockSize; skip > 0; skip--) {
+			keyCodec.read(in);
+			valueCodec.read(in);
+		}
+		K key = keyCodec.read(in);
+		return new SimpleImmutableEntry<>(key, valueCodec.read(in));
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		int index = countBelow(key, false);
+		return index < size && compare(entryAt(index).getKey(), key) == 0;
+	}
+
+	@Override
+	public V get(Object key) {
+		if(size == 0)
+			return null;
+		int block = lastBlockBelow(key, true);
+		if(block < 0)
+			return null;
+		ByteBuffer in = block(block);
+		for(int i = blockLength(block); i > 0; i--) {
+			int comparison = compare(keyCodec.read(in), key);
+			V value = valueCodec.read(in);
+			if(comparison == 0)
+				return value;
+			if(comparison > 0)
+				return null;
+		}
+		return null;
+	}
+
+	@Override
+	public Comparator<? super K> comparator() {
+		return comparator;
+	}
+
+	private static <K> K keyOrNull(Entry<K, ?> entry) {
+		return entry == null ? null : entry.getKey();
+	}
+
+	private static <K> K keyOrThrow(Entry<K, ?> entry) {
+		if(entry == null) throw new NoSuchElementException();
+		return entry.getKey();
+	}
+
+	@Override
+	public Entry<K, V> firstEntry() {
+		return entryAt(0);
+	}
+
+	@Override
+	public Entry<K, V> lastEntry() {
+		return entryAt(size - 1);
+	}
+
+	@Override
+	public K firstKey() {
+		return keyOrThrow(firstEntry());
+	}
+
+	@Override
+	public K lastKey() {
+		return keyOrThrow(lastEntry());
+	}
+
+	@Override
+	public Entry<K, V> pollFirstEntry() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public Entry<K, V> pollLastEntry() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public Entry<K, V> lowerEntry(K key) {
+		return entryAt(countBelow(key, false) - 1);
+	}
+
+	@Override
+	public K lowerKey(K key) {
+		return keyOrNull(lowerEntry(key));
+	}
+
+	@Override
+	public Entry<K, V> floorEntry(K key) {
+		return entryAt(countBelow(key, true) - 1);
+	}
+
+	@Override
+	public K floorKey(K key) {
+		return keyOrNull(floorEntry(key));
+	}
+
+	@Override
+	public Entry<K, V> ceilingEntry(K key) {
+		return entryAt(countBelow(key, false));
+	}
+
+	@Override
+	public K ceilingKey(K key) {
+		return keyOrNull(ceilingEntry(key));
+	}
+
+	@Override
+	public Entry<K, V> higherEntry(K key) {
+		return entryAt(countBelow(key, true));
+	}
+
+	@Override
+	public K higherKey(K key) {
+		return keyOrNull(higherEntry(key));
+	}
+
+	@Override
+	public NavigableMap<K, V> descendingMap() {
+		return new SubMap(true, null, false, true, null, false, true);
+	}
+
+	@Override
+	public NavigableSet<K> navigableKeySet() {
+		return new NavigableKeySet<>(this);
+	}
+
+	@Override
+	public Set<K> keySet() {
+		return navigableKeySet();
+	}
+
+	@Override
+	public NavigableSet<K> descendingKeySet() {
+		return descendingMap().navigableKeySet();
+	}
+
+	@Override
+	public NavigableMap<K, V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+		return new SubMap(false, fromKey, fromInclusive, false, toKey, toInclusive, false);
+	}
+
+	@Override
+	public NavigableMap<K, V> headMap(K toKey, boolean inclusive) {
+		return new SubMap(true, null, false, false, toKey, inclusive, false);
+	}
+
+	@Override
+	public NavigableMap<K, V> tailMap(K fromKey, boolean inclusive) {
+		return new SubMap(false, fromKey, inclusive, true, null, false, false);
+	}
+
+	@Override
+	public SortedMap<K, V> subMap(K fromKey, K toKey) {
+		return subMap(fromKey, true, toKey, false);
+	}
+
+	@Override
+	public SortedMap<K, V> headMap(K toKey) {
+		return headMap(toKey, false);
+	}
+
+	@Override
+	public SortedMap<K, V> tailMap(K fromKey) {
+		return tailMap(fromKey, true);
+	}
+
+	@Override
+	public Set<Entry<K, V>> entrySet() {
+		return new AbstractSet<Entry<K, V>>() {
+			@Override
+			public Iterator<Entry<K, V>> iterator() {
+				return new EntryIterator(0, size, false);
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+
+			@Override
+			public boolean contains(Object o) {
+				if(!(o instanceof Entry)) return false;
+				Entry<?, ?> entry = (Entry<?, ?>) o;
+				Object key = entry.getKey();
+				return containsKey(key) && Objects.equals(get(key), entry.getValue());
+			}
+		};
+	}
+
+	/**
+	 * Iterates over the entries with indexes in [from, to) in key order or
+	 * its reverse, decoding one block at a time.
+	 */
+	private final class EntryIterator implements Iterator<Entry<K, V>> {
+		private final Object[] keys = new Object[blockSize];
+		private final Object[] values = new Object[blockSize];
+		private final int from;
+		private final int to;
+		private final boolean descending;
+		private int block = -1;
+		private int next;
+
+		EntryIterator(int from, int to, boolean descending) {
+			this.from = from;
+			this.to = to;
+			this.descending = descending;
+			this.next = descending ? to - 1 : from;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next >= from && next < to;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public Entry<K, V> next() {
+			if(!hasNext()) throw new NoSuchElementException();
+			if(next / blockSize != block) {
+				block = next / blockSize;
+				ByteBuffer in = block(block);
+				for(int i = 0, length = blockLength(block); i < length; i++) {
+					keys[i] = keyCodec.read(in);
+					values[i] = valueCodec.read(in);
+				}
+			}
+			int index = next % blockSize;
+			next += descending ? -1 : 1;
+			return new SimpleImmutableEntry<>((K) keys[index], (V) values[index]);
+		}
+	}
+
+	/**
+	 * A range view that iterates and counts by index.
+	 */
+	private class SubMap extends NavigableSubMap<K, V> {
+		SubMap(boolean fromStart, K lo, boolean loInclusive,
+		       boolean toEnd, K hi, boolean hiInclusive,
+		       boolean descending) {
+			super(MappedMyMap.this, fromStart, lo, loInclusive, toEnd, hi, hiInclusive, descending);
+		}
+
+		@Override
+		NavigableSubMap<K, V> newView(boolean fromStart, K lo, boolean loInclusive,
+		                              boolean toEnd, K hi, boolean hiInclusive,
+		                              boolean descending) {
+			return new SubMap(fromStart, lo, loInclusive, toEnd, hi, hiInclusive, descending);
+		}
+
+		private int fromIndex() {
+			return fromStart ? 0 : countBelow(lo, !loInclusive);
+		}
+
+		private int toIndex() {
+			return toEnd ? size : countBelow(hi, hiInclusive);
+		}
+
+		@Override
+		Iterator<Entry<K, V>> entryIterator() {
+			return new EntryIterator(fromIndex(), toIndex(), descending);
+		}
+
+		@Override
+		public int size() {
+			return Math.max(0, toIndex() - fromIndex());
+		}
+
+		@Override
+		public Entry<K, V> pollFirstEntry() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Entry<K, V> pollLastEntry() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -3,14 +3,114 @@ package net.htlgrieskirchen.aud2.map;
 import javax.swing.*;
 import javax.swing.tree.TreeNode;
 import java.awt.*;
+import java.io.*;
+import java.lang.reflect.Array;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+public class MyMap<K, V> implements NavigableMap<K, V>, Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private transient KeySet keySet = null;
+	private transient ValuesCollection values = null;
+	private transient EntrySet entrySet = null;
 
-public class MyMap<K extends Comparable<K>, V> implements Map<K, V> {
-	private final KeySet keySet = new KeySet();
-	private final ValuesCollection values = new ValuesCollection();
-	private final EntrySet entrySet = new EntrySet();
+	/**
+	 * Has to be serializable for the map to be, like in a {@link TreeMap}
+	 */
+	private final Comparator<? super K> comparator;
+	private final boolean balanced;
+	private final boolean indexValues;
+
+	private transient MyEntry root = null;
+	/**
+	 * Counts structural modifications (inserted or removed entries), so
+	 * iterators can detect changes they did not make themselves.
+	 */
+	private transient int modCount = 0;
+	/**
+	 * The entries of every value in key order, or null if values are not
+	 * indexed. Values are looked up by their hash code, so they must not
+	 * change their equality while they are in the map.
+	 */
+	private transient Map<Object, NavigableSet<MyEntry>> valueIndex;
+	/**
+	 * The sum of the hash codes of all entries, kept up to date on every
+	 * modification like the value index. Keys and values must not change
+	 * their hash codes while they are in the map.
+	 */
+	private transient int hashCode = 0;
+	/**
+	 * Counts the calls of {@link #clear()}, so entries can tell in O(1) that
+	 * they were dropped together with the whole tree.
+	 */
+	private transient int clears = 0;
+
+	/**
+	 * Creates an empty map backed by a plain binary search tree, ordered by
+	 * the natural ordering of its keys.
+	 */
+	public MyMap() {
+		this(false);
+	}
+
+	/**
+	 * Creates an empty map ordered by the natural ordering of its keys.
+	 *
+	 * @param balanced if true, the tree is kept AVL-balanced on every put and
+	 *                 remove, so its height stays logarithmic even when keys
+	 *                 are inserted in sorted order
+	 */
+	public MyMap(boolean balanced) {
+		this(null, balanced);
+	}
+
+	/**
+	 * Creates an empty map backed by a plain binary search tree.
+	 *
+	 * @param comparator the ordering of the keys, or null for their natural ordering
+	 */
+	public MyMap(Comparator<? super K> comparator) {
+		this(comparator, false);
+	}
 
-	private MyEntry<K, V> root = null;
+	/**
+	 * Creates an empty map.
+	 *
+	 * @param comparator the ordering of the keys, or null for their natural ordering
+	 * @param balanced   see {@link #MyMap(boolean)}
+	 */
+	public MyMap(Comparator<? super K> comparator, boolean balanced) {
+		this(comparator, balanced, false);
+	}
+
+	/**
+	 * Creates an empty map.
+	 *
+	 * @param comparator  the ordering of the keys, or null for their natural ordering
+	 * @param balanced    see {@link #MyMap(boolean)}
+	 * @param indexValues if true, a hash index from every value to its keys is
+	 *                    kept up to date on every modification, so that
+	 *                    {@link #containsValue}, {@link #keysForValue} and
+	 *                    removing values through {@link #values()} do not have
+	 *                    to scan the whole tree
+	 */
+	public MyMap(Comparator<? super K> comparator, boolean balanced, boolean indexValues) {
+		this.comparator = comparator;
+		this.balanced = balanced;
+		this.indexValues = indexValues;
+		this.valueIndex = indexValues ? new HashMap<>() : null;
+	}
 
 	@Override
 	public String toString() {
@@ -28,7 +128,7 @@ public class MyMap<K extends Comparable<K>, V> implements Map<K, V> {
 	@Override
 	public int size() {
 		if(root == null) return 0;
-		return root.size();
+		return root.size;
 	}
 
 	@Override
@@ -43,12 +143,39 @@ public class MyMap<K extends Comparable<K>, V> implements Map<K, V> {
 
 	@Override
 	public boolean containsValue(Object value) {
+		if(valueIndex != null)
+			return valueIndex.containsKey(value);
 		return root != null && root.containsValue(value);
 	}
 
+	/**
+	 * Returns the keys that are mapped to the given value, in key order.
+	 * This takes O(k) for k matching keys if values are indexed, otherwise
+	 * O(n).
+	 *
+	 * @return a new list of the matching keys
+	 */
+	public List<K> keysForValue(V value) {
+		List<K> keys = new ArrayList<>();
+		if(valueIndex != null) {
+			Set<MyEntry> entries = valueIndex.get(value);
+			if(entries != null) {
+				for(MyEntry entry : entries)
+					keys.add(entry.key);
+			}
+		} else {
+			forEach((key, entryValue) -> {
+				if(Objects.equals(entryValue, value))
+					keys.add(key);
+			});
+		}
+		return keys;
+	}
+
 	private boolean containsEntry(Entry<?, ?> entry) {
 		if(entry == null) return false;
-		return Objects.equals(get(entry.getKey()), entry.getValue());
+		MyEntry myEntry = getEntry(entry.getKey());
+		return myEntry != null && Objects.equals(myEntry.value, entry.getValue());
 	}
 
 	@Override
@@ -60,7 +187,10 @@ public class MyMap<K extends Comparable<K>, V> implements Map<K, V> {
 	@Override
 	public V put(K key, V value) {
 		if(root == null) {
-			root = new MyEntry<>(key, value);
+			compare(key, key); //Type and null check
+			root = new MyEntry(key, value);
+			track(root);
+			modCount++;
 			return null;
 		}
 		return root.put(key, value);
@@ -73,6 +203,42 @@ public class MyMap<K extends Comparable<K>, V> implements Map<K, V> {
 		return root.removeByKey(key);
 	}
 
+	@Override
+	public boolean remove(Object key, Object value) {
+		MyEntry entry = getEntry(key);
+		if(entry == null || !Objects.equals(entry.value, value))
+			return false;
+		entry.remove();
+		return true;
+	}
+
+	/**
+	 * Removes the entry with the given key. Unlike {@link #remove(Object)}
+	 * this also reports the removal of keys that are mapped to null.
+	 *
+	 * @return true if the key was in the map
+	 */
+	private boolean removeKey(Object key) {
+		MyEntry entry = getEntry(key);
+		if(entry == null)
+			return false;
+		entry.remove();
+		return true;
+	}
+
+	private MyEntry getEntry(Object key) {
+		if(root == null)
+			return null;
+		return root.find(key);
+	}
+
+	@SuppressWarnings("unchecked")
+	private int compare(Object key1, Object key2) {
+		if(comparator == null)
+			return ((Comparable<? super K>) key1).compareTo((K) key2);
+		return comparator.compare((K) key1, (K) key2);
+	}
+
 	/**
 	 * Removes all entries that have the given value.
 	 *
@@ -82,47 +248,832 @@ public class MyMap<K extends Comparable<K>, V> implements Map<K, V> {
 	private boolean removeByValue(Object value) {
 		if(root == null)
 			return false;
+		if(valueIndex != null) {
+			NavigableSet<MyEntry> entries = valueIndex.remove(value);
+			if(entries == null)
+				return false;
+			for(MyEntry entry : entries)
+				entry.remove();
+			return true;
+		}
 		return root.removeByValue(value);
 	}
 
+	/**
+	 * Adds an entry that was inserted or got a new value to the hash code
+	 * and the value index.
+	 */
+	private void track(MyEntry entry) {
+		hashCode += entry.hashCode();
+		if(valueIndex != null)
+			valueIndex.computeIfAbsent(entry.value, value -> new TreeSet<>()).add(entry);
+	}
+
+	/**
+	 * Takes an entry that is about to be removed or to change its value out
+	 * of the hash code and the value index.
+	 */
+	private void untrack(MyEntry entry) {
+		hashCode -= entry.hashCode();
+		if(valueIndex == null)
+			return;
+		Set<MyEntry> entries = valueIndex.get(entry.value);
+		if(entries != null && entries.remove(entry) && entries.isEmpty())
+			valueIndex.remove(entry.value);
+	}
+
+	/**
+	 * Computes the hash code and fills the value index from scratch after
+	 * the tree was built in bulk.
+	 */
+	private void retrack() {
+		hashCode = 0;
+		if(valueIndex != null)
+			valueIndex.clear();
+		for(MyEntry entry = root == null ? null : root.first(); entry != null; entry = entry.successor())
+			track(entry);
+	}
+
+	/**
+	 * Builds a balanced map from entries in ascending key order in O(n),
+	 * without comparing any key against more than its predecessor.
+	 *
+	 * @param entries the entries in strictly ascending natural key order
+	 * @param size    the number of entries to take from the iterator
+	 * @return a new map in balanced mode
+	 * @throws IllegalArgumentException if the keys are not strictly ascending
+	 * @throws NoSuchElementException   if the iterator has fewer than size entries
+	 */
+	public static <K extends Comparable<? super K>, V> MyMap<K, V> fromSorted(Iterator<? extends Entry<? extends K, ? extends V>> entries, int size) {
+		return fromSorted(entries, size, null);
+	}
+
+	/**
+	 * Like {@link #fromSorted(Iterator, int)}, for keys in the order of the
+	 * given comparator.
+	 */
+	public static <K, V> MyMap<K, V> fromSorted(Iterator<? extends Entry<? extends K, ? extends V>> entries, int size, Comparator<? super K> comparator) {
+		MyMap<K, V> map = new MyMap<>(comparator, true);
+		map.buildFromSorted(entries, size);
+		return map;
+	}
+
+	/**
+	 * Writes all entries in key order to a file that {@link #open} can map
+	 * back in without deserializing it. An existing file is only replaced
+	 * once the new one has been written completely.
+	 *
+	 * @throws NullPointerException if the map contains a null value, the file is left unchanged
+	 * @see MappedMyMap
+	 */
+	public void save(Path path, Codec<? super K> keyCodec, Codec<? super V> valueCodec) throws IOException {
+		MappedMyMap.write(path, entrySet(), size(), keyCodec, valueCodec);
+	}
+
+	/**
+	 * Memory-maps a file written by {@link #save} as a read-only map that
+	 * decodes entries only when they are accessed. To modify it, copy it
+	 * into a new MyMap with {@link #putAll}, which takes O(n).
+	 *
+	 * @throws IOException if the file cannot be read or was not written by {@link #save}
+	 */
+	public static <K extends Comparable<? super K>, V> MappedMyMap<K, V> open(Path path, Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+		return MappedMyMap.open(path, null, keyCodec, valueCodec);
+	}
+
+	/**
+	 * Like {@link #open(Path, Codec, Codec)}, for a map saved with the given
+	 * comparator.
+	 */
+	public static <K, V> MappedMyMap<K, V> open(Path path, Comparator<? super K> comparator, Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+		return MappedMyMap.open(path, comparator, keyCodec, valueCodec);
+	}
+
+	/**
+	 * Writes the size and then the entries in key order, so the nodes and
+	 * their links never reach the stream and deep trees cannot overflow the
+	 * stack.
+	 *
+	 * @serialData the size (int), then key and value of every entry in ascending key order
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		out.writeInt(size());
+		int expectedModCount = modCount;
+		for(MyEntry entry = root == null ? null : root.first(); entry != null; entry = entry.successor()) {
+			out.writeObject(entry.key);
+			out.writeObject(entry.value);
+		}
+		if(modCount != expectedModCount)
+			throw new ConcurrentModificationException();
+	}
+
+	/**
+	 * Rebuilds the tree perfectly balanced in O(n), whether or not it was
+	 * balanced before.
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		valueIndex = indexValues ? new HashMap<>() : null;
+		int size = in.readInt();
+		Iterator<Entry<K, V>> entries = new Iterator<Entry<K, V>>() {
+			@Override
+			public boolean hasNext() {
+				return true;
+			}
+
+			@Override
+			@SuppressWarnings("unchecked")
+			public Entry<K, V> next() {
+				try {
+					K key = (K) in.readObject();
+					return new AbstractMap.SimpleImmutableEntry<>(key, (V) in.readObject());
+				} catch(IOException | ClassNotFoundException e) {
+					throw new ReadFailure(e);
+				}
+			}
+		};
+		try {
+			buildFromSorted(entries, size);
+		} catch(ReadFailure e) {
+			if(e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw (ClassNotFoundException) e.getCause();
+		} catch(IllegalArgumentException | ClassCastException | NullPointerException e) {
+			InvalidObjectException invalid = new InvalidObjectException("Invalid map data: " + e.getMessage());
+			invalid.initCause(e);
+			throw invalid;
+		}
+	}
+
+	/**
+	 * Carries a checked exception of the stream out of the iterator in {@link #readObject}.
+	 */
+	private static class ReadFailure extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		private ReadFailure(Exception cause) {
+			super(cause);
+		}
+	}
+
+	/**
+	 * Copying into an empty map builds a perfectly balanced tree in one pass:
+	 * in O(n) for a {@link SortedMap} with the same ordering or any input that
+	 * turns out to be sorted already, otherwise in O(n log n) after sorting.
+	 */
 	@Override
 	public void putAll(Map<? extends K, ? extends V> m) {
+		if(root == null && !m.isEmpty()) {
+			if(m instanceof SortedMap && Objects.equals(comparator, ((SortedMap<?, ?>) m).comparator()))
+				buildFromSorted(m.entrySet().iterator(), m.size());
+			else
+				buildFromUnsorted(m);
+			return;
+		}
 		for(Entry<? extends K, ? extends V> e : m.entrySet()) {
 			this.put(e.getKey(), e.getValue());
 		}
 	}
 
+	private void buildFromSorted(Iterator<? extends Entry<? extends K, ? extends V>> entries, int size) {
+		if(size < 0)
+			throw new IllegalArgumentException("Negative size: " + size);
+		root = buildTree(0, size - 1, new Supplier<MyEntry>() {
+			private MyEntry previous = null;
+
+			@Override
+			public MyEntry get() {
+				Entry<? extends K, ? extends V> entry = entries.next();
+				MyEntry next = new MyEntry(entry.getKey(), entry.getValue());
+				if(previous == null)
+					compare(next.key, next.key); //Type and null check
+				else if(compare(previous.key, next.key) >= 0)
+					throw new IllegalArgumentException("Keys are not strictly ascending: " + previous.key + ", " + next.key);
+				previous = next;
+				return next;
+			}
+		});
+		retrack();
+		modCount++;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void buildFromUnsorted(Map<? extends K, ? extends V> m) {
+		Entry<? extends K, ? extends V>[] entries = (Entry<? extends K, ? extends V>[]) m.entrySet().toArray(new Entry<?, ?>[0]);
+		Comparator<Entry<? extends K, ? extends V>> byKey = (a, b) -> compare(a.getKey(), b.getKey());
+		for(int i = 1; i < entries.length; i++) {
+			if(byKey.compare(entries[i - 1], entries[i]) >= 0) {
+				//Stable, so of keys that compare as equal the last one put stays last
+				Arrays.sort(entries, byKey);
+				break;
+			}
+		}
+		List<MyEntry> nodes = new ArrayList<>(entries.length);
+		for(Entry<? extends K, ? extends V> entry : entries) {
+			MyEntry last = nodes.isEmpty() ? null : nodes.get(nodes.size() - 1);
+			if(last != null && compare(last.key, entry.getKey()) == 0)
+				last.value = entry.getValue(); //Same as put: the first key stays, the last value wins
+			else
+				nodes.add(new MyEntry(entry.getKey(), entry.getValue()));
+		}
+		compare(nodes.get(0).key, nodes.get(0).key); //Type and null check
+		Iterator<MyEntry> iterator = nodes.iterator();
+		root = buildTree(0, nodes.size() - 1, iterator::next);
+		retrack();
+		modCount++;
+	}
+
+	/**
+	 * Links the next hi - lo + 1 entries supplied in ascending key order into
+	 * a perfectly balanced subtree. Sibling subtrees differ in size by at most
+	 * one, so the result is a valid AVL tree. Recursion depth is log2(n).
+	 *
+	 * @return the root of the subtree, with parent left unset
+	 */
+	private MyEntry buildTree(int lo, int hi, Supplier<MyEntry> entries) {
+		if(lo > hi)
+			return null;
+		int mid = (lo + hi) >>> 1;
+		MyEntry left = buildTree(lo, mid - 1, entries);
+		MyEntry entry = entries.get();
+		entry.parent = null;
+		entry.left = left;
+		if(left != null)
+			left.parent = entry;
+		entry.right = buildTree(mid + 1, hi, entries);
+		if(entry.right != null)
+			entry.right.parent = entry;
+		entry.updateSubtree();
+		return entry;
+	}
+
 	@Override
 	public void clear() {
+		modCount++;
+		clears++;
 		root = null;
+		hashCode = 0;
+		if(valueIndex != null)
+			valueIndex.clear();
 	}
 
 	@Override
 	public Set<K> keySet() {
+		if(keySet == null)
+			keySet = new KeySet();
 		return keySet;
 	}
 
 	@Override
 	public Collection<V> values() {
+		if(values == null)
+			values = new ValuesCollection();
 		return values;
 	}
 
 	@Override
 	public Set<Entry<K, V>> entrySet() {
+		if(entrySet == null)
+			entrySet = new EntrySet();
 		return entrySet;
 	}
 
+	@Override
+	public Comparator<? super K> comparator() {
+		return comparator;
+	}
+
+	@Override
+	public K firstKey() {
+		if(root == null) throw new NoSuchElementException();
+		return root.first().key;
+	}
+
+	@Override
+	public K lastKey() {
+		if(root == null) throw new NoSuchElementException();
+		return root.last().key;
+	}
+
+	@Override
+	public Entry<K, V> firstEntry() {
+		return root == null ? null : export(root.first());
+	}
+
+	@Override
+	public Entry<K, V> lastEntry() {
+		return root == null ? null : export(root.last());
+	}
+
+	@Override
+	public Entry<K, V> pollFirstEntry() {
+		if(root == null) return null;
+		MyEntry entry = root.first();
+		Entry<K, V> exported = export(entry);
+		entry.remove();
+		return exported;
+	}
+
+	@Override
+	public Entry<K, V> pollLastEntry() {
+		if(root == null) return null;
+		MyEntry entry = root.last();
+		Entry<K, V> exported = export(entry);
+		entry.remove();
+		return exported;
+	}
+
+	@Override
+	public Entry<K, V> lowerEntry(K key) {
+		return export(highestBelow(key, false));
+	}
+
+	@Override
+	public K lowerKey(K key) {
+		return keyOrNull(highestBelow(key, false));
+	}
+
+	@Override
+	public Entry<K, V> floorEntry(K key) {
+		return export(highestBelow(key, true));
+	}
+
+	@Override
+	public K floorKey(K key) {
+		return keyOrNull(highestBelow(key, true));
+	}
+
+	@Override
+	public Entry<K, V> ceilingEntry(K key) {
+		return export(lowestAbove(key, true));
+	}
+
+	@Override
+	public K ceilingKey(K key) {
+		return keyOrNull(lowestAbove(key, true));
+	}
+
+	@Override
+	public Entry<K, V> higherEntry(K key) {
+		return export(lowestAbove(key, false));
+	}
+
+	@Override
+	public K higherKey(K key) {
+		return keyOrNull(lowestAbove(key, false));
+	}
+
+	@Override
+	public NavigableMap<K, V> descendingMap() {
+		return new SubMap(true, null, true, true, null, true, true);
+	}
+
+	@Override
+	public NavigableSet<K> navigableKeySet() {
+		return new NavigableKeySet<>(this);
+	}
+
+	@Override
+	public NavigableSet<K> descendingKeySet() {
+		return descendingMap().navigableKeySet();
+	}
+
+	@Override
+	public NavigableMap<K, V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+		return new SubMap(false, fromKey, fromInclusive, false, toKey, toInclusive, false);
+	}
+
+	@Override
+	public NavigableMap<K, V> headMap(K toKey, boolean inclusive) {
+		return new SubMap(true, null, true, false, toKey, inclusive, false);
+	}
+
+	@Override
+	public NavigableMap<K, V> tailMap(K fromKey, boolean inclusive) {
+		return new SubMap(false, fromKey, inclusive, true, null, true, false);
+	}
+
+	@Override
+	public SortedMap<K, V> subMap(K fromKey, K toKey) {
+		return subMap(fromKey, true, toKey, false);
+	}
+
+	@Override
+	public SortedMap<K, V> headMap(K toKey) {
+		return headMap(toKey, false);
+	}
+
+	@Override
+	public SortedMap<K, V> tailMap(K fromKey) {
+		return tailMap(fromKey, true);
+	}
+
+	/**
+	 * Runs in O(height) using the subtree sizes.
+	 *
+	 * @param key the key to look for, which does not have to be in the map
+	 * @return the number of keys in this map that are smaller than the given
+	 * key, which is the index of the key in {@link #keySet()} if it is present
+	 */
+	public int rank(K key) {
+		return countBelow(key, false);
+	}
+
+	/**
+	 * Runs in O(height) using the subtree sizes.
+	 *
+	 * @param index the position in ascending key order, starting at 0
+	 * @return the key at the given position
+	 * @throws IndexOutOfBoundsException if index is negative or not smaller than {@link #size()}
+	 */
+	public K select(int index) {
+		if(index < 0 || index >= size())
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+		return selectEntry(index).key;
+	}
+
+	/**
+	 * @param index the position in ascending key order, between 0 and size() - 1
+	 */
+	private MyEntry selectEntry(int index) {
+		MyEntry entry = root;
+		while(true) {
+			int leftSize = entry.left == null ? 0 : entry.left.size;
+			if(index == leftSize)
+				return entry;
+			if(index < leftSize) {
+				entry = entry.left;
+			} else {
+				index -= leftSize + 1;
+				entry = entry.right;
+			}
+		}
+	}
+
+	/**
+	 * Counts the keys from fromKey (inclusive) to toKey (exclusive), the same
+	 * range that {@link #subMap(Object, Object)} covers.
+	 */
+	public int countInRange(K fromKey, K toKey) {
+		return countInRange(fromKey, true, toKey, false);
+	}
+
+	/**
+	 * Counts the keys between the given bounds in O(height), without visiting
+	 * the entries in between.
+	 *
+	 * @throws IllegalArgumentException if fromKey is greater than toKey
+	 */
+	public int countInRange(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+		if(compare(fromKey, toKey) > 0)
+			throw new IllegalArgumentException("fromKey > toKey");
+		return Math.max(0, countBelow(toKey, toInclusive) - countBelow(fromKey, !fromInclusive));
+	}
+
+	/**
+	 * Walks the tree in key order along the successor links, without
+	 * allocating an iterator or entry objects.
+	 */
+	@Override
+	public void forEach(BiConsumer<? super K, ? super V> action) {
+		Objects.requireNonNull(action);
+		int expectedModCount = modCount;
+		for(MyEntry entry = root == null ? null : root.first(); entry != null; entry = entry.successor()) {
+			action.accept(entry.key, entry.value);
+			if(modCount != expectedModCount)
+				throw new ConcurrentModificationException();
+		}
+	}
+
+	/**
+	 * Replaces the values in key order in place, like {@link #forEach}.
+	 */
+	@Override
+	public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+		Objects.requireNonNull(function);
+		int expectedModCount = modCount;
+		for(MyEntry entry = root == null ? null : root.first(); entry != null; entry = entry.successor()) {
+			entry.setValue(function.apply(entry.key, entry.value));
+			if(modCount != expectedModCount)
+				throw new ConcurrentModificationException();
+		}
+	}
+
+	/**
+	 * Calls the action for the keys from fromKey (inclusive) to toKey
+	 * (exclusive) in key order, the same range that
+	 * {@link #subMap(Object, Object)} covers.
+	 */
+	public void forEachInRange(K fromKey, K toKey, BiConsumer<? super K, ? super V> action) {
+		forEachInRange(fromKey, true, toKey, false, action);
+	}
+
+	/**
+	 * Calls the action for the keys between the given bounds in key order.
+	 * Finding the first key takes O(height), every further one O(1)
+	 * amortized, and nothing is allocated.
+	 *
+	 * @throws IllegalArgumentException if fromKey is greater than toKey
+	 */
+	public void forEachInRange(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive, BiConsumer<? super K, ? super V> action) {
+		Objects.requireNonNull(action);
+		if(compare(fromKey, toKey) > 0)
+			throw new IllegalArgumentException("fromKey > toKey");
+		int expectedModCount = modCount;
+		for(MyEntry entry = lowestAbove(fromKey, fromInclusive); entry != null; entry = entry.successor()) {
+			int comparison = compare(entry.key, toKey);
+			if(comparison > 0 || (comparison == 0 && !toInclusive))
+				break;
+			action.accept(entry.key, entry.value);
+			if(modCount != expectedModCount)
+				throw new ConcurrentModificationException();
+		}
+	}
+
+	/**
+	 * Performs the action for every entry, like
+	 * {@link java.util.concurrent.ConcurrentHashMap#forEach(long, BiConsumer)}.
+	 * In parallel the order is unspecified, and the map must not be modified
+	 * until this returns.
+	 *
+	 * @param parallelismThreshold the number of entries from which ranges of
+	 *                             them are processed in parallel fork-join tasks,
+	 *                             {@link Long#MAX_VALUE} to always run sequentially
+	 * @see #reduceValues
+	 */
+	public void forEach(long parallelismThreshold, BiConsumer<? super K, ? super V> action) {
+		Objects.requireNonNull(action);
+		bulk(parallelismThreshold, (key, value) -> {
+			action.accept(key, value);
+			return null;
+		}, null, null);
+	}
+
+	/**
+	 * Transforms every value and combines the results, in parallel if the
+	 * map has at least parallelismThreshold entries. Results are combined in
+	 * key order, so the reducer has to be associative but not commutative.
+	 *
+	 * @param transformer returns the contribution of a value, or null to skip it
+	 * @return the combined contributions, or null if there are none
+	 */
+	public <U> U reduceValues(long parallelismThreshold, Function<? super V, ? extends U> transformer,
+	                          BiFunction<? super U, ? super U, ? extends U> reducer) {
+		Objects.requireNonNull(transformer);
+		Objects.requireNonNull(reducer);
+		return bulk(parallelismThreshold, (key, value) -> transformer.apply(value), reducer, null);
+	}
+
+	/**
+	 * Returns a non-null result of the search function for some entry, in
+	 * parallel if the map has at least parallelismThreshold entries. Once a
+	 * result is found the other tasks stop looking.
+	 *
+	 * @return a non-null result, or null if the function returned null for every entry
+	 */
+	public <U> U search(long parallelismThreshold, BiFunction<? super K, ? super V, ? extends U> searchFunction) {
+		Objects.requireNonNull(searchFunction);
+		AtomicReference<U> found = new AtomicReference<>();
+		bulk(parallelismThreshold, searchFunction, null, found);
+		return found.get();
+	}
+
+	/**
+	 * Splits the positions in key order into ranges of at least
+	 * parallelismThreshold entries, but not into more than four tasks per
+	 * thread of the common pool, like
+	 * {@link java.util.concurrent.ConcurrentHashMap} batches its bulk tasks.
+	 */
+	private <U> U bulk(long parallelismThreshold, BiFunction<? super K, ? super V, ? extends U> transformer,
+	                   BiFunction<? super U, ? super U, ? extends U> reducer, AtomicReference<U> found) {
+		if(root == null)
+			return null;
+		int expectedModCount = modCount;
+		long leafSize = Math.max(1, Math.max(parallelismThreshold, size() / ((long) ForkJoinPool.getCommonPoolParallelism() << 2)));
+		BulkTask<U> task = new BulkTask<>(0, size(), leafSize, transformer, reducer, found);
+		U result = size() < parallelismThreshold ? task.compute() : ForkJoinPool.commonPool().invoke(task);
+		if(modCount != expectedModCount)
+			throw new ConcurrentModificationException();
+		return result;
+	}
+
+	/**
+	 * Removes every entry that matches the filter in a single in-order pass
+	 * and then links the remaining entries into a perfectly balanced tree,
+	 * in O(n) no matter how many entries are removed. The filter sees the
+	 * entries themselves, so it must not keep them.
+	 *
+	 * @return true if any entry was removed
+	 * @throws ConcurrentModificationException if the filter modifies the map
+	 */
+	public boolean removeIf(Predicate<? super Entry<K, V>> filter) {
+		Objects.requireNonNull(filter);
+		int size = size();
+		List<MyEntry> survivors = new ArrayList<>(size);
+		int expectedModCount = modCount;
+		for(MyEntry entry = root == null ? null : root.first(); entry != null; entry = entry.successor()) {
+			boolean remove = filter.test(entry);
+			if(modCount != expectedModCount)
+				throw new ConcurrentModificationException();
+			if(!remove)
+				survivors.add(entry);
+		}
+		if(survivors.size() == size)
+			return false;
+		//Both walks are in key order, so every entry that is not the next survivor was removed
+		int next = 0;
+		for(MyEntry entry = root.first(); entry != null; entry = entry.successor()) {
+			if(next < survivors.size() && survivors.get(next) == entry)
+				next++;
+			else
+				entry.detach();
+		}
+		Iterator<MyEntry> iterator = survivors.iterator();
+		root = buildTree(0, survivors.size() - 1, iterator::next);
+		modCount++;
+		return true;
+	}
+
+	/**
+	 * Removing m entries one by one costs about m times the height of the
+	 * tree, a {@link #removeIf} pass costs n.
+	 *
+	 * @return true if removing the given number of entries one by one is cheaper than a pass over the tree
+	 */
+	private boolean cheaperOneByOne(int count) {
+		return (long) count * height() < size();
+	}
+
+	/**
+	 * @return the number of keys smaller than the given one (or equal to it if inclusive)
+	 */
+	private int countBelow(Object key, boolean inclusive) {
+		int count = 0;
+		MyEntry entry = root;
+		while(entry != null) {
+			int comparison = compare(entry.key, key);
+			if(comparison < 0 || (comparison == 0 && inclusive)) {
+				count += 1 + (entry.left == null ? 0 : entry.left.size);
+				entry = entry.right;
+			} else {
+				entry = entry.left;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return the entry with the smallest key above the given one (or equal
+	 * to it if inclusive), or null if there is none
+	 */
+	private MyEntry lowestAbove(Object key, boolean inclusive) {
+		MyEntry candidate = null;
+		MyEntry entry = root;
+		while(entry != null) {
+			int comparison = compare(entry.key, key);
+			if(comparison == 0 && inclusive) return entry;
+			if(comparison > 0) {
+				candidate = entry;
+				entry = entry.left;
+			} else {
+				entry = entry.right;
+			}
+		}
+		return candidate;
+	}
+
+	/**
+	 * @return the entry with the largest key below the given one (or equal
+	 * to it if inclusive), or null if there is none
+	 */
+	private MyEntry highestBelow(Object key, boolean inclusive) {
+		MyEntry candidate = null;
+		MyEntry entry = root;
+		while(entry != null) {
+			int comparison = compare(entry.key, key);
+			if(comparison == 0 && inclusive) return entry;
+			if(comparison < 0) {
+				candidate = entry;
+				entry = entry.right;
+			} else {
+				entry = entry.left;
+			}
+		}
+		return candidate;
+	}
+
+	/**
+	 * Entries handed out by the navigation methods are snapshots, like in
+	 * {@link TreeMap}, so they do not change when the map does.
+	 */
+	private Entry<K, V> export(MyEntry entry) {
+		return entry == null ? null : new AbstractMap.SimpleImmutableEntry<>(entry);
+	}
+
+	private K keyOrNull(MyEntry entry) {
+		return entry == null ? null : entry.key;
+	}
+
+	/**
+	 * A {@link SortedMap} with the same ordering is compared by walking both
+	 * maps in key order side by side in O(n), any other map by looking up
+	 * every key of this map in it. The entries are always compared, so this
+	 * stays correct even if a value changed its hash code while in the map.
+	 */
 	@Override
 	public boolean equals(Object o) {
 		if(this == o) return true;
 		if(!(o instanceof Map)) return false;
 		Map<?, ?> map = (Map<?, ?>) o;
-		return Objects.equals(entrySet(), map.entrySet());
+		if(map.size() != size()) return false;
+		try {
+			if(o instanceof SortedMap && Objects.equals(comparator, ((SortedMap<?, ?>) o).comparator())) {
+				Iterator<? extends Entry<?, ?>> others = map.entrySet().iterator();
+				for(MyEntry entry = root == null ? null : root.first(); entry != null; entry = entry.successor()) {
+					Entry<?, ?> other = others.next();
+					if(compare(entry.key, other.getKey()) != 0 || !Objects.equals(entry.value, other.getValue()))
+						return false;
+				}
+				return true;
+			}
+			for(MyEntry entry = root == null ? null : root.first(); entry != null; entry = entry.successor()) {
+				Object value = map.get(entry.key);
+				if(!Objects.equals(entry.value, value) || (value == null && !map.containsKey(entry.key)))
+					return false;
+			}
+			return true;
+		} catch(ClassCastException | NullPointerException e) {
+			//Like AbstractMap#equals, keys the other map cannot handle are not in it
+			return false;
+		}
+	}
+
+	/**
+	 * The sum is maintained on every modification, so keys and values must
+	 * not change their hash codes while they are in the map. If one does,
+	 * the result no longer matches the entries, while {@link #equals} does.
+	 *
+	 * @return the sum of the hash codes of all entries in O(1)
+	 */
+	@Override
+	public int hashCode() {
+		return hashCode;
+	}
+
+	/**
+	 * @return the number of entries on the longest path from the root to a leaf
+	 */
+	public int height() {
+		return root == null ? 0 : root.height;
 	}
 
-	@Override
-	public int hashCode() {
-		return entrySet().parallelStream().mapToInt(Entry::hashCode).sum();
+	/**
+	 * Walks the whole tree and verifies that the keys are in order, that all
+	 * parent links, cached heights and subtree sizes are consistent and, in
+	 * balanced mode, that no two sibling subtrees differ in height by more
+	 * than one. If values are indexed, the index has to list exactly the
+	 * entries of the tree, and the maintained hash code has to match them.
+	 *
+	 * @throws IllegalStateException if the tree is corrupt
+	 */
+	public void checkInvariants() {
+		if(root != null && root.parent != null)
+			throw new IllegalStateException("Root has a parent");
+		Deque<MyEntry> stack = new ArrayDeque<>();
+		MyEntry previous = null;
+		MyEntry entry = root;
+		while(entry != null || !stack.isEmpty()) {
+			while(entry != null) {
+				stack.push(entry);
+				entry = entry.left;
+			}
+			entry = stack.pop();
+			entry.checkInvariants();
+			if(previous != null && previous.compareTo(entry) >= 0)
+				throw new IllegalStateException("Keys out of order: " + previous + " before " + entry);
+			previous = entry;
+			entry = entry.right;
+		}
+		if(valueIndex != null) {
+			int indexed = 0;
+			for(Entry<Object, NavigableSet<MyEntry>> value : valueIndex.entrySet()) {
+				if(value.getValue().isEmpty())
+					throw new IllegalStateException("Empty index for value " + value.getKey());
+				for(MyEntry indexedEntry : value.getValue()) {
+					if(!Objects.equals(indexedEntry.value, value.getKey()) || getEntry(indexedEntry.key) != indexedEntry)
+						throw new IllegalStateException("Stale index entry " + indexedEntry + " for value " + value.getKey());
+				}
+				indexed += value.getValue().size();
+			}
+			if(indexed != size())
+				throw new IllegalStateException("Index lists " + indexed + " of " + size() + " entries");
+		}
+		int expectedHashCode = 0;
+		for(MyEntry each = root == null ? null : root.first(); each != null; each = each.successor())
+			expectedHashCode += each.hashCode();
+		if(hashCode != expectedHashCode)
+			throw new IllegalStateException("Hash code " + hashCode + " instead of " + expectedHashCode);
 	}
 
 	public void createViewer() {
@@ -130,7 +1081,7 @@ public class MyMap<K extends Comparable<K>, V> implements Map<K, V> {
         JTree tree = new JTree(root){
             @Override
             public String convertValueToText(Object value, boolean selected, boolean expanded, boolean leaf, int row, boolean hasFocus) {
-                MyEntry<K, V> entry = (MyEntry<K, V>) value;
+                MyEntry entry = (MyEntry) value;
                 if(entry.parent == null) return entry.toString();
                 return (entry.parent.left == entry ? "[L] " : "[R] ") + entry.toString();
             }
@@ -145,14 +1096,20 @@ public class MyMap<K extends Comparable<K>, V> implements Map<K, V> {
 		frame.setVisible(true);
 	}
 
-	@SuppressWarnings("TypeParameterHidesVisibleType")
-	private class MyEntry<K extends Comparable<K>, V> implements Comparable<MyEntry<K, V>>, Entry<K, V>, TreeNode {
+	private class MyEntry implements Comparable<MyEntry>, Entry<K, V>, TreeNode {
 		private final K key;
 		private V value;
 
-		private MyEntry<K, V> parent;
-		private MyEntry<K, V> left;
-		private MyEntry<K, V> right;
+		private MyEntry parent;
+		private MyEntry left;
+		private MyEntry right;
+		private int height = 1;
+		private int size = 1;
+		/**
+		 * Set once this entry is removed from the map
+		 */
+		private boolean detached = false;
+		private final int clearsAtCreation = clears;
 
 		public MyEntry(K key, V value) {
 			this.key = key;
@@ -160,8 +1117,8 @@ public class MyMap<K extends Comparable<K>, V> implements Map<K, V> {
 		}
 
 		@Override
-		public int compareTo(MyEntry<K, V> entry) {
-			return key.compareTo(entry.key);
+		public int compareTo(MyEntry entry) {
+			return compare(key, entry.key);
 		}
 
 		@Override
@@ -174,13 +1131,37 @@ public class MyMap<K extends Comparable<K>, V> implements Map<K, V> {
 			return value;
 		}
 
+		/**
+		 * Only an entry that is still in the map updates the hash code and
+		 * the value index. A removed one just changes its own value, like
+		 * the entries of a {@link TreeMap}.
+		 */
 		@Override
 		public V setValue(V value) {
 			V oldValue = this.value;
+			if(!isInMap()) {
+				this.value = value;
+				return oldValue;
+			}
+			untrack(this);
 			this.value = value;
+			track(this);
 			return oldValue;
 		}
 
+		private boolean isInMap() {
+			return !detached && clearsAtCreation == clears;
+		}
+
+		/**
+		 * Takes this entry out of the hash code and the value index for good.
+		 * Its links are left to the caller.
+		 */
+		private void detach() {
+			untrack(this);
+			detached = true;
+		}
+
 		@Override
 		public boolean equals(Object o) {
 			if(this == o) return true;
@@ -197,233 +1178,284 @@ public class MyMap<K extends Comparable<K>, V> implements Map<K, V> {
 			return keyHash ^ valueHash;
 		}
 
+		/**
+		 * Overwrites the value if the key is already in this subtree.
+		 * A new entry is only allocated once the key is known to be missing.
+		 */
 		public V put(K key, V value) {
-			MyEntry<K, V> entry = new MyEntry<>(key, value);
-			if(this.key.equals(entry.key)) {
-				V oldValue = this.value;
-				this.value = value;
-				return oldValue;
-			}
-			if(this.compareTo(entry) <= 0) {
-				if(this.left == null) {
-					this.left = entry;
-					this.left.parent = this;
-					return null;
-				}
-				return this.left.put(key, value);
-			} else {
-				if(this.right == null) {
-					this.right = entry;
-					this.right.parent = this;
-					return null;
-				}
-				return this.right.put(key, value);
+			MyEntry current = this;
+			int comparison;
+			while(true) {
+				comparison = compare(current.key, key);
+				if(comparison == 0)
+					return current.setValue(value);
+				MyEntry next = comparison > 0 ? current.left : current.right;
+				if(next == null) break;
+				current = next;
 			}
+			MyEntry entry = new MyEntry(key, value);
+			track(entry);
+			if(comparison > 0)
+				current.left = entry;
+			else
+				current.right = entry;
+			entry.parent = current;
+			current.fixAfterModification();
+			modCount++;
+			return null;
 		}
 
-		public int size() {
-			return 1 + (left == null ? 0 : left.size()) + (right == null ? 0 : right.size());
+		/**
+		 * @return the entry with the smallest key in this subtree
+		 */
+		private MyEntry first() {
+			MyEntry entry = this;
+			while(entry.left != null)
+				entry = entry.left;
+			return entry;
 		}
 
-		public Set<K> keySet() {
-			Set<K> keySet = new HashSet<>();
-
-			keySet.add(key);
-			if(left != null) keySet.addAll(left.keySet());
-			if(right != null) keySet.addAll(right.keySet());
-
-			return keySet;
+		/**
+		 * @return the entry with the largest key in this subtree
+		 */
+		private MyEntry last() {
+			MyEntry entry = this;
+			while(entry.right != null)
+				entry = entry.right;
+			return entry;
 		}
 
-		public Collection<V> values() {
-			Collection<V> values = new ArrayList<>();
+		/**
+		 * @return the entry with the next larger key in the whole tree, or null if this is the last one
+		 */
+		private MyEntry successor() {
+			if(right != null)
+				return right.first();
+			MyEntry child = this;
+			MyEntry entry = parent;
+			while(entry != null && entry.right == child) {
+				child = entry;
+				entry = entry.parent;
+			}
+			return entry;
+		}
 
-			values.add(value);
-			if(left != null) values.addAll(left.values());
-			if(right != null) values.addAll(right.values());
+		/**
+		 * @return the entry with the next smaller key in the whole tree, or null if this is the first one
+		 */
+		private MyEntry predecessor() {
+			if(left != null)
+				return left.last();
+			MyEntry child = this;
+			MyEntry entry = parent;
+			while(entry != null && entry.left == child) {
+				child = entry;
+				entry = entry.parent;
+			}
+			return entry;
+		}
+
+		/**
+		 * @return the entry with the given key in this subtree, or null if there is none
+		 */
+		private MyEntry find(Object key) {
+			MyEntry entry = this;
+			while(entry != null) {
+				int comparison = compare(entry.key, key);
+				if(comparison == 0) return entry;
+				entry = comparison > 0 ? entry.left : entry.right;
+			}
+			return null;
+		}
 
-			return values;
+		public V get(Object key) {
+			MyEntry entry = find(key);
+			return entry == null ? null : entry.value;
 		}
 
-		public Set<Entry<K, V>> entrySet() {
-			Set<Entry<K, V>> entrySet = new HashSet<>();
+		public boolean containsKey(Object key) {
+			return find(key) != null;
+		}
 
-			entrySet.add(this);
-			if(left != null) entrySet.addAll(left.entrySet());
-			if(right != null) entrySet.addAll(right.entrySet());
+		public boolean containsValue(Object value) {
+			return search(entry -> Objects.equals(entry.value, value)) != null;
+		}
 
-			return entrySet;
+		private V removeByKey(Object key) {
+			MyEntry entry = find(key);
+			return entry == null ? null : entry.remove();
 		}
 
-		public V get(Object key) {
-			if(this.key.equals(key)) return value;
-			MyEntry<K, V> sideToSearch = this.key.compareTo((K) key) < 0 ? left : right;
-			if(sideToSearch != null) {
-				return sideToSearch.get(key);
+		private boolean removeByValue(Object value) {
+			//Collect first, removing rotates subtrees in and out of the part still to be searched
+			List<MyEntry> matches = new ArrayList<>();
+			search(entry -> {
+				if(Objects.equals(value, entry.value))
+					matches.add(entry);
+				return false;
+			});
+			for(MyEntry match : matches) {
+				match.remove();
+			}
+			return !matches.isEmpty();
+		}
+
+		/**
+		 * Visits the entries of this subtree in pre-order until one matches.
+		 * An explicit stack is used instead of recursion, so degenerate trees
+		 * cannot overflow the call stack.
+		 *
+		 * @return the first matching entry, or null if there is none
+		 */
+		private MyEntry search(Predicate<MyEntry> condition) {
+			Deque<MyEntry> stack = new ArrayDeque<>();
+			stack.push(this);
+			while(!stack.isEmpty()) {
+				MyEntry entry = stack.pop();
+				if(condition.test(entry)) return entry;
+				if(entry.right != null) stack.push(entry.right);
+				if(entry.left != null) stack.push(entry.left);
 			}
 			return null;
 		}
 
-		public boolean containsKey(Object key) {
-			if(Objects.equals(this.key, key)) return true;
-			MyEntry<K, V> sideToSearch = this.key.compareTo((K) key) < 0 ? left : right;
-			if(sideToSearch != null) {
-				return sideToSearch.containsKey(key);
+		/**
+		 * Unlinks this entry from the tree. An entry with two children is
+		 * replaced by its in-order successor, so every other entry keeps its
+		 * identity.
+		 *
+		 * @return the value of this entry
+		 */
+		private V remove() {
+			detach();
+			MyEntry fixFrom;
+			if(left == null || right == null) {
+				fixFrom = parent;
+				replaceWith(left == null ? right : left);
+			} else {
+				MyEntry successor = right;
+				while(successor.left != null)
+					successor = successor.left;
+				if(successor.parent != this) {
+					fixFrom = successor.parent;
+					successor.replaceWith(successor.right);
+					successor.right = right;
+					successor.right.parent = successor;
+				} else {
+					fixFrom = successor;
+				}
+				replaceWith(successor);
+				successor.left = left;
+				successor.left.parent = successor;
 			}
-			return false;
+			parent = left = right = null;
+			if(fixFrom != null)
+				fixFrom.fixAfterModification();
+			modCount++;
+			return value;
 		}
 
-		public boolean containsValue(Object value) {
-			if(Objects.equals(this.value, value)) return true;
-			return (left != null && left.containsValue(value)) || (right != null && right.containsValue(value));
+		/**
+		 * Puts the given entry (which may be null) where this entry is
+		 * attached to its parent or to the root. The links of this entry
+		 * itself are left untouched.
+		 */
+		private void replaceWith(MyEntry replacement) {
+			if(parent == null)
+				root = replacement;
+			else if(parent.left == this)
+				parent.left = replacement;
+			else
+				parent.right = replacement;
+			if(replacement != null)
+				replacement.parent = parent;
+		}
+
+		/**
+		 * Walks from this entry up to the root and refreshes the cached
+		 * heights and subtree sizes. In balanced mode every entry whose subtrees differ in
+		 * height by more than one is rotated back into AVL shape on the way.
+		 */
+		private void fixAfterModification() {
+			for(MyEntry entry = this; entry != null; entry = entry.parent) {
+				entry.updateSubtree();
+				if(balanced)
+					entry = entry.rebalance();
+			}
 		}
 
-		private int height() {
-			return 1 + Math.max(
-					this.left == null ? 0 : this.left.height(),
-					this.right == null ? 0 : this.right.height()
-			);
+		private void updateSubtree() {
+			height = computeHeight();
+			size = computeSize();
 		}
 
-		private V removeByKey(Object key) {
-			if(this.key.equals(key)) {
-				return this.remove();
+		private int computeHeight() {
+			return 1 + Math.max(left == null ? 0 : left.height, right == null ? 0 : right.height);
+		}
+
+		private int computeSize() {
+			return 1 + (left == null ? 0 : left.size) + (right == null ? 0 : right.size);
+		}
+
+		private int balanceFactor() {
+			return (left == null ? 0 : left.height) - (right == null ? 0 : right.height);
+		}
+
+		/**
+		 * @return the entry that is now at the position of this entry
+		 */
+		private MyEntry rebalance() {
+			int balance = balanceFactor();
+			if(balance > 1) {
+				if(left.balanceFactor() < 0)
+					left.rotateLeft();
+				return rotateRight();
 			}
-			V returnValue = null;
-			if(left != null)
-				returnValue = this.left.removeByKey(key);
-			if(returnValue != null)
-				return returnValue;
-			if(right != null) {
-				return this.right.removeByKey(key);
+			if(balance < -1) {
+				if(right.balanceFactor() > 0)
+					right.rotateRight();
+				return rotateLeft();
 			}
-			return null;
+			return this;
 		}
 
-		private boolean removeByValue(Object value) {
-			if(value == null) throw new IllegalArgumentException("removeByValue currently only supports non null parameters"); //FIXME
-			boolean changed = false;
-			if(this.value.equals(value)) {
-				changed = this.remove() != null;
-			}
-			if(left != null)
-				changed |= left.removeByValue(value);
+		private MyEntry rotateLeft() {
+			MyEntry pivot = right;
+			replaceWith(pivot);
+			right = pivot.left;
 			if(right != null)
-				changed |= right.removeByValue(value);
-			return changed;
-		}
-
-        private V remove() {
-            //No children
-            if (this != root) {
-                if (left == null && right == null) {
-                    if (this.parent.left == this) {
-                        this.parent.left = null;
-                        return this.value;
-                    } else if (this.parent.right == this) {
-                        this.parent.right = null;
-                        return this.value;
-                    }
-                }
-            } else {
-                if (left == null && right == null) {
-                    root = null;
-                    return this.value;
-                }
-            }
-            //One child
-            if (this != root) {
-                if (left != null && right == null) {
-                    if (this.parent.left == this) {
-                        this.parent.left = this.left;
-                        this.left.parent = this.parent;
-                        return this.value;
-                    } else if (this.parent.right == this) {
-                        this.parent.right = this.left;
-                        this.left.parent = this.parent;
-                        return this.value;
-                    }
-                } else if (right != null && left == null) {
-                    if (this.parent.left == this) {
-                        this.parent.left = this.right;
-                        this.right.parent = this.parent;
-                        return this.value;
-                    } else if (this.parent.right == this) {
-                        this.parent.right = this.right;
-                        this.right.parent = this.parent;
-                        return this.value;
-                    }
-                }
-            } else {
-                if (left != null && right == null) {
-                    root = root.left;
-                    root.parent = null;
-                    return this.value;
-                } else if (right != null && left == null) {
-                    root = root.right;
-                    root.parent = null;
-                    return this.value;
-                }
-            }
-            //Two children
-            if (this != root) {
-                if (left != null && right != null) {
-                    if (left.height() > right.height()) {
-                        this.left.droStickln(this.right, true);
-                        if (this.parent.left == this) {
-                            this.parent.left = this.left;
-                            this.left.parent = this.parent;
-                            return this.value;
-                        } else if (this.parent.right == this) {
-                            this.parent.right = this.left;
-                            this.left.parent = this.parent;
-                            return this.value;
-                        }
-                    } else {
-                        this.right.droStickln(this.left, false);
-                        if (this.parent.left == this) {
-                            this.parent.left = this.right;
-                            this.right.parent = this.parent;
-                            return this.value;
-                        } else if (this.parent.right == this) {
-                            this.parent.right = this.right;
-                            this.right.parent = this.parent;
-                            return this.value;
-                        }
-                    }
-                }
-            } else {
-                if (left != null && right != null) {
-                    if (left.height() > right.height()) {
-                        this.left.droStickln(this.right, true);
-                        root = root.left;
-                        root.parent = null;
-                        return this.value;
-                    } else {
-                        this.right.droStickln(this.left, false);
-                        root = root.right;
-                        root.parent = null;
-                        return this.value;
-                    }
-                }
-            }
-            assert false;
-            return null;
-        }
-
-		@SuppressWarnings("SpellCheckingInspection")
-		private void droStickln(MyEntry<K, V> entry, boolean rightSide) {
-			MyEntry<K,V> side = rightSide ? right : left;
-			if(side != null)
-				side.droStickln(entry, rightSide);
-			else {
-				if(rightSide) {
-					right = entry;
-				} else {
-					left = entry;
-				}
-				entry.parent = this;
-			}
+				right.parent = this;
+			pivot.left = this;
+			parent = pivot;
+			updateSubtree();
+			pivot.updateSubtree();
+			return pivot;
+		}
+
+		private MyEntry rotateRight() {
+			MyEntry pivot = left;
+			replaceWith(pivot);
+			left = pivot.right;
+			if(left != null)
+				left.parent = this;
+			pivot.right = this;
+			parent = pivot;
+			updateSubtree();
+			pivot.updateSubtree();
+			return pivot;
+		}
+
+		private void checkInvariants() {
+			if(left != null && left.parent != this)
+				throw new IllegalStateException("Broken parent link below " + this);
+			if(right != null && right.parent != this)
+				throw new IllegalStateException("Broken parent link below " + this);
+			if(height != computeHeight())
+				throw new IllegalStateException("Stale height " + height + " at " + this + ", expected " + computeHeight());
+			if(size != computeSize())
+				throw new IllegalStateException("Stale size " + size + " at " + this + ", expected " + computeSize());
+			if(balanced && Math.abs(balanceFactor()) > 1)
+				throw new IllegalStateException("Unbalanced at " + this + " (balance " + balanceFactor() + ")");
 		}
 
 		@Override
@@ -478,73 +1510,383 @@ public class MyMap<K extends Comparable<K>, V> implements Map<K, V> {
 		}
 	}
 
-	private class KeySet implements Set<K> {
+	private Object[] toArray(Iterator<?> iterator) {
+		Object[] array = new Object[size()];
+		for(int i = 0; iterator.hasNext(); i++)
+			array[i] = iterator.next();
+		return array;
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> T[] toArray(Iterator<?> iterator, T[] a) {
+		int size = size();
+		T[] array = a.length >= size ? a : (T[]) Array.newInstance(a.getClass().getComponentType(), size);
+		for(int i = 0; iterator.hasNext(); i++)
+			array[i] = (T) iterator.next();
+		if(array.length > size)
+			array[size] = null;
+		return array;
+	}
+
+	/**
+	 * Walks the tree in key order by following parent links from one entry
+	 * to its successor, so creating an iterator is O(1) and nothing is
+	 * copied. Iterators are fail-fast: any structural modification not made
+	 * through the iterator itself makes the next call throw a
+	 * {@link ConcurrentModificationException}.
+	 */
+	private abstract class TreeIterator<T> implements Iterator<T> {
+		private MyEntry next;
+		private MyEntry lastReturned = null;
+		private int expectedModCount = modCount;
+
+		TreeIterator() {
+			this(root == null ? null : root.first());
+		}
+
+		TreeIterator(MyEntry first) {
+			next = first;
+		}
+
+		/**
+		 * @return the entry to visit after the given one, or null to stop
+		 */
+		MyEntry advance(MyEntry entry) {
+			return entry.successor();
+		}
+
 		@Override
-		public int size() {
-			return MyMap.this.size();
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		MyEntry nextEntry() {
+			if(next == null) throw new NoSuchElementException();
+			if(modCount != expectedModCount) throw new ConcurrentModificationException();
+			lastReturned = next;
+			next = advance(next);
+			return lastReturned;
 		}
 
 		@Override
-		public boolean isEmpty() {
-			return MyMap.this.isEmpty();
+		public void remove() {
+			if(lastReturned == null) throw new IllegalStateException();
+			if(modCount != expectedModCount) throw new ConcurrentModificationException();
+			//Removing never replaces the successor entry, so next stays valid
+			lastReturned.remove();
+			expectedModCount = modCount;
+			lastReturned = null;
+		}
+	}
+
+	/**
+	 * Covers the entries at the positions index to fence - 1 in key order.
+	 * Splitting halves that range and finds the first entry of the new half
+	 * in O(height) through the subtree sizes, so the halves are exact and
+	 * every split reports its size. Traversal follows the successor links
+	 * without allocating. Like the iterators it is fail-fast, and it binds to
+	 * the map's contents on first use rather than on creation. The map is not
+	 * thread-safe, so parallel streams must not modify it, not even through
+	 * {@link Entry#setValue}.
+	 */
+	private class TreeSpliterator<T> implements Spliterator<T> {
+		private final Function<MyEntry, T> extract;
+		private final int characteristics;
+		private final Comparator<? super T> comparator;
+		private int index;
+		/**
+		 * The end of the range, or -1 until the spliterator is first used
+		 */
+		private int fence;
+		/**
+		 * The entry at index, or null if it has not been looked up yet
+		 */
+		private MyEntry next;
+		private int expectedModCount;
+
+		TreeSpliterator(Function<MyEntry, T> extract, int characteristics, Comparator<? super T> comparator) {
+			this(extract, characteristics, comparator, 0, -1, null, modCount);
+		}
+
+		private TreeSpliterator(Function<MyEntry, T> extract, int characteristics, Comparator<? super T> comparator,
+		                        int index, int fence, MyEntry next, int expectedModCount) {
+			this.extract = extract;
+			this.characteristics = characteristics | Spliterator.ORDERED | Spliterator.SIZED | Spliterator.SUBSIZED;
+			this.comparator = comparator;
+			this.index = index;
+			this.fence = fence;
+			this.next = next;
+			this.expectedModCount = expectedModCount;
+		}
+
+		private int getFence() {
+			if(fence < 0) {
+				expectedModCount = modCount;
+				fence = size();
+			}
+			return fence;
+		}
+
+		private MyEntry current() {
+			if(next == null)
+				next = selectEntry(index);
+			return next;
 		}
 
 		@Override
-		public boolean contains(Object o) {
-			return containsKey(o);
+		public Spliterator<T> trySplit() {
+			int fence = getFence();
+			int mid = (index + fence) >>> 1;
+			if(mid <= index)
+				return null;
+			if(modCount != expectedModCount)
+				throw new ConcurrentModificationException();
+			Spliterator<T> prefix = new TreeSpliterator<>(extract, characteristics, comparator, index, mid, next, expectedModCount);
+			index = mid;
+			next = null;
+			return prefix;
 		}
 
 		@Override
-		public Iterator<K> iterator() {
-			if(root == null) return new Iterator<K>() {
-				@Override
-				public boolean hasNext() {
-					return false;
-				}
+		public boolean tryAdvance(Consumer<? super T> action) {
+			Objects.requireNonNull(action);
+			if(index >= getFence())
+				return false;
+			if(modCount != expectedModCount)
+				throw new ConcurrentModificationException();
+			MyEntry entry = current();
+			index++;
+			next = index < fence ? entry.successor() : null;
+			action.accept(extract.apply(entry));
+			return true;
+		}
 
-				@Override
-				public K next() {
-					throw new NoSuchElementException();
-				}
+		@Override
+		public void forEachRemaining(Consumer<? super T> action) {
+			Objects.requireNonNull(action);
+			int fence = getFence();
+			if(index >= fence)
+				return;
+			if(modCount != expectedModCount)
+				throw new ConcurrentModificationException();
+			MyEntry entry = current();
+			int remaining = fence - index;
+			index = fence;
+			next = null;
+			for(; remaining > 0; remaining--) {
+				action.accept(extract.apply(entry));
+				entry = entry.successor();
+			}
+			if(modCount != expectedModCount)
+				throw new ConcurrentModificationException();
+		}
 
-				@Override
-				public void remove() {
-					throw new IllegalStateException();
-				}
-			};
-			return new Iterator<K>() {
-				private final Iterator<K> iterator = root.keySet().iterator();
-				private K lastReturn = null;
+		@Override
+		public long estimateSize() {
+			return getFence() - index;
+		}
 
-				@Override
-				public boolean hasNext() {
-					return iterator.hasNext();
-				}
+		@Override
+		public int characteristics() {
+			return characteristics;
+		}
+
+		@Override
+		public Comparator<? super T> getComparator() {
+			if(!hasCharacteristics(Spliterator.SORTED))
+				throw new IllegalStateException();
+			return comparator;
+		}
+	}
+
+	/**
+	 * Covers the entries at the positions from to to - 1 in key order. Ranges
+	 * of more than leafSize entries are halved by position, like
+	 * {@link TreeSpliterator} splits, so the depth of the tasks is
+	 * logarithmic whatever the shape of the tree. The first half is forked
+	 * and the second computed in the same thread. A range of at most
+	 * leafSize entries is walked in order from its first entry, which is
+	 * found through the subtree sizes. The results are combined in key
+	 * order.
+	 */
+	private class BulkTask<U> extends RecursiveTask<U> {
+		private static final long serialVersionUID = 1L;
+
+		private final int from;
+		private final int to;
+		private final long leafSize;
+		private final BiFunction<? super K, ? super V, ? extends U> transformer;
+		/**
+		 * Combines two non-null results, or null to keep the first one
+		 */
+		private final BiFunction<? super U, ? super U, ? extends U> reducer;
+		/**
+		 * Receives the first non-null result when searching, otherwise null
+		 */
+		private final AtomicReference<U> found;
+
+		BulkTask(int from, int to, long leafSize, BiFunction<? super K, ? super V, ? extends U> transformer,
+		         BiFunction<? super U, ? super U, ? extends U> reducer, AtomicReference<U> found) {
+			this.from = from;
+			this.to = to;
+			this.leafSize = leafSize;
+			this.transformer = transformer;
+			this.reducer = reducer;
+			this.found = found;
+		}
+
+		private BulkTask<U> forRange(int from, int to) {
+			return new BulkTask<>(from, to, leafSize, transformer, reducer, found);
+		}
+
+		@Override
+		protected U compute() {
+			if(to - from <= leafSize)
+				return computeInOrder();
+			int mid = (from + to) >>> 1;
+			BulkTask<U> first = forRange(from, mid);
+			first.fork();
+			U second = forRange(mid, to).compute();
+			return combine(first.join(), second);
+		}
+
+		private U computeInOrder() {
+			if(isFound())
+				return null;
+			U result = null;
+			MyEntry entry = selectEntry(from);
+			for(int remaining = to - from; remaining > 0 && !isFound(); remaining--) {
+				result = combine(result, apply(entry));
+				if(remaining > 1)
+					entry = entry.successor();
+			}
+			return result;
+		}
+
+		private boolean isFound() {
+			return found != null && found.get() != null;
+		}
+
+		private U apply(MyEntry entry) {
+			if(isFound())
+				return null;
+			U result = transformer.apply(entry.key, entry.value);
+			if(found != null && result != null)
+				found.compareAndSet(null, result);
+			return result;
+		}
+
+		private U combine(U first, U second) {
+			if(first == null)
+				return second;
+			if(second == null || reducer == null)
+				return first;
+			return reducer.apply(first, second);
+		}
+	}
+
+	private class KeyIterator extends TreeIterator<K> {
+		@Override
+		public K next() {
+			return nextEntry().key;
+		}
+	}
+
+	private class ValueIterator extends TreeIterator<V> {
+		@Override
+		public V next() {
+			return nextEntry().value;
+		}
+	}
+
+	private class EntryIterator extends TreeIterator<Entry<K, V>> {
+		@Override
+		public Entry<K, V> next() {
+			return nextEntry();
+		}
+	}
+
+	/**
+	 * A range view that walks the tree directly instead of looking up every
+	 * next key through the navigation methods.
+	 */
+	private class SubMap extends NavigableSubMap<K, V> {
+		SubMap(boolean fromStart, K lo, boolean loInclusive, boolean toEnd, K hi, boolean hiInclusive, boolean descending) {
+			super(MyMap.this, fromStart, lo, loInclusive, toEnd, hi, hiInclusive, descending);
+		}
+
+		@Override
+		NavigableSubMap<K, V> newView(boolean fromStart, K lo, boolean loInclusive, boolean toEnd, K hi, boolean hiInclusive, boolean descending) {
+			return new SubMap(fromStart, lo, loInclusive, toEnd, hi, hiInclusive, descending);
+		}
+
+		private MyEntry firstInRange() {
+			MyEntry entry;
+			if(descending)
+				entry = toEnd ? (root == null ? null : root.last()) : highestBelow(hi, hiInclusive);
+			else
+				entry = fromStart ? (root == null ? null : root.first()) : lowestAbove(lo, loInclusive);
+			return entry == null || !inRange(entry.key) ? null : entry;
+		}
+
+		@Override
+		public int size() {
+			int above = toEnd ? MyMap.this.size() : countBelow(hi, hiInclusive);
+			int below = fromStart ? 0 : countBelow(lo, !loInclusive);
+			return Math.max(0, above - below);
+		}
 
+		@Override
+		Iterator<Entry<K, V>> entryIterator() {
+			return new TreeIterator<Entry<K, V>>(firstInRange()) {
 				@Override
-				public K next() {
-					return lastReturn = iterator.next();
+				MyEntry advance(MyEntry entry) {
+					MyEntry next = descending ? entry.predecessor() : entry.successor();
+					return next == null || !inRange(next.key) ? null : next;
 				}
 
 				@Override
-				public void remove() {
-					if(lastReturn == null) throw new IllegalStateException();
-					KeySet.this.remove(lastReturn);
+				public Entry<K, V> next() {
+					return nextEntry();
 				}
 			};
 		}
+	}
+
+	private class KeySet implements Set<K> {
+		@Override
+		public int size() {
+			return MyMap.this.size();
+		}
+
+		@Override
+		public boolean isEmpty() {
+			return MyMap.this.isEmpty();
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			return containsKey(o);
+		}
+
+		@Override
+		public Iterator<K> iterator() {
+			return new KeyIterator();
+		}
+
+		@Override
+		public Spliterator<K> spliterator() {
+			return new TreeSpliterator<>(entry -> entry.key, Spliterator.DISTINCT | Spliterator.SORTED, comparator);
+		}
 
 		@Override
 		public Object[] toArray() {
-			if(root == null) return new Object[0];
-			return root.keySet().toArray();
+			return MyMap.this.toArray(iterator());
 		}
 
 		@Override
 		public <T> T[] toArray(T[] a) {
-			if(root == null) return a;
-			//noinspection SuspiciousToArrayCall
-			return root.keySet().toArray(a);
+			return MyMap.this.toArray(iterator(), a);
 		}
 
 		@Override
@@ -554,7 +1896,7 @@ public class MyMap<K extends Comparable<K>, V> implements Map<K, V> {
 
 		@Override
 		public boolean remove(Object o) {
-			return MyMap.this.remove(o) != null;
+			return removeKey(o);
 		}
 
 		@Override
@@ -569,15 +1911,24 @@ public class MyMap<K extends Comparable<K>, V> implements Map<K, V> {
 
 		@Override
 		public boolean retainAll(Collection<?> c) {
-			if(root == null) return false;
-			//TODO: Test if the code below can be simplified
-			return root.keySet().stream().filter(k -> !c.contains(k)).map(MyMap.this::remove).map(Objects::nonNull).filter(Boolean::booleanValue).count() > 0;
+			Objects.requireNonNull(c);
+			return MyMap.this.removeIf(entry -> !c.contains(entry.getKey()));
 		}
 
 		@Override
 		public boolean removeAll(Collection<?> c) {
-			//TODO: Test if the code below can be simplified
-			return c.stream().map(MyMap.this::remove).map(Objects::nonNull).filter(Boolean::booleanValue).count() > 0;
+			if(!cheaperOneByOne(c.size()))
+				return MyMap.this.removeIf(entry -> c.contains(entry.getKey()));
+			boolean modified = false;
+			for(Object key : c)
+				modified |= removeKey(key);
+			return modified;
+		}
+
+		@Override
+		public boolean removeIf(Predicate<? super K> filter) {
+			Objects.requireNonNull(filter);
+			return MyMap.this.removeIf(entry -> filter.test(entry.getKey()));
 		}
 
 		@Override
@@ -619,58 +1970,22 @@ public class MyMap<K extends Comparable<K>, V> implements Map<K, V> {
 
 		@Override
 		public Iterator<V> iterator() {
-			if(root == null) return new Iterator<V>() {
-				@Override
-				public boolean hasNext() {
-					return false;
-				}
-
-				@Override
-				public V next() {
-					throw new NoSuchElementException();
-				}
-
-				@Override
-				public void remove() {
-					throw new IllegalStateException();
-				}
-			};
-			return new Iterator<V>() {
-				private final Object UNINITIALIZED = new Object();
-				private final Iterator<V> iterator = root.values().iterator();
-				private Object lastValue = UNINITIALIZED;
-
-				@Override
-				public boolean hasNext() {
-					return iterator.hasNext();
-				}
-
-				@Override
-				public V next() {
-					V next = iterator.next();
-					lastValue = next;
-					return next;
-				}
+			return new ValueIterator();
+		}
 
-				@Override
-				public void remove() {
-					if(lastValue == UNINITIALIZED) throw new IllegalStateException();
-					ValuesCollection.this.remove(lastValue);
-				}
-			};
+		@Override
+		public Spliterator<V> spliterator() {
+			return new TreeSpliterator<>(entry -> entry.value, 0, null);
 		}
 
 		@Override
 		public Object[] toArray() {
-			if(root == null) return new Object[0];
-			return root.values().toArray();
+			return MyMap.this.toArray(iterator());
 		}
 
 		@Override
 		public <T> T[] toArray(T[] a) {
-			if(root == null) return a;
-			//noinspection SuspiciousToArrayCall
-			return root.values().toArray(a);
+			return MyMap.this.toArray(iterator(), a);
 		}
 
 		@Override
@@ -696,16 +2011,34 @@ public class MyMap<K extends Comparable<K>, V> implements Map<K, V> {
 
 		@Override
 		public boolean removeAll(Collection<?> c) {
-			if(root == null) return false;
-			//FIXME: test if below can be simplified
-			return c.stream().map(MyMap.this::removeByValue).filter(Boolean::booleanValue).count() > 0;
+			Objects.requireNonNull(c);
+			if(valueIndex == null)
+				return MyMap.this.removeIf(entry -> c.contains(entry.getValue()));
+			boolean modified = false;
+			for(Object value : c)
+				modified |= removeByValue(value);
+			return modified;
 		}
 
 		@Override
 		public boolean retainAll(Collection<?> c) {
 			if(root == null) return false;
-			//FIXME: test if below can be simplified
-			return root.values().stream().filter(v -> !c.contains(v)).map(MyMap.this::removeByValue).filter(Boolean::booleanValue).count() > 0;
+			if(valueIndex != null) {
+				List<Object> dropped = new ArrayList<>();
+				for(Object value : valueIndex.keySet()) {
+					if(!c.contains(value))
+						dropped.add(value);
+				}
+				dropped.forEach(MyMap.this::removeByValue);
+				return !dropped.isEmpty();
+			}
+			return MyMap.this.removeIf(entry -> !c.contains(entry.getValue()));
+		}
+
+		@Override
+		public boolean removeIf(Predicate<? super V> filter) {
+			Objects.requireNonNull(filter);
+			return MyMap.this.removeIf(entry -> filter.test(entry.getValue()));
 		}
 
 		@Override
@@ -742,61 +2075,28 @@ public class MyMap<K extends Comparable<K>, V> implements Map<K, V> {
 
 		@Override
 		public boolean contains(Object o) {
-			if(root == null) return false;
-			return root.entrySet().contains(o);
+			return o instanceof Entry && containsEntry((Entry<?, ?>) o);
 		}
 
 		@Override
 		public Iterator<Entry<K, V>> iterator() {
-			if(root == null) return new Iterator<Entry<K, V>>() {
-				@Override
-				public boolean hasNext() {
-					return false;
-				}
-
-				@Override
-				public Entry<K, V> next() {
-					throw new NoSuchElementException();
-				}
-
-				@Override
-				public void remove() {
-					throw new IllegalStateException();
-				}
-			};
-			return new Iterator<Entry<K, V>>() {
-				private final Iterator<Entry<K, V>> iterator = root.entrySet().iterator();
-				private Entry<K, V> lastEntry = null;
-
-				@Override
-				public boolean hasNext() {
-					return iterator.hasNext();
-				}
-
-				@Override
-				public Entry<K, V> next() {
-					return lastEntry = iterator.next();
-				}
+			return new EntryIterator();
+		}
 
-				@Override
-				public void remove() {
-					if(lastEntry == null) throw new IllegalStateException();
-					EntrySet.this.remove(lastEntry);
-				}
-			};
+		@Override
+		public Spliterator<Entry<K, V>> spliterator() {
+			return new TreeSpliterator<>(entry -> entry, Spliterator.DISTINCT | Spliterator.SORTED | Spliterator.NONNULL,
+					(a, b) -> compare(a.getKey(), b.getKey()));
 		}
 
 		@Override
 		public Object[] toArray() {
-			if(root == null) return new Object[0];
-			return root.entrySet().toArray();
+			return MyMap.this.toArray(iterator());
 		}
 
 		@Override
 		public <T> T[] toArray(T[] a) {
-			if(root == null) return a;
-			//noinspection SuspiciousToArrayCall
-			return root.entrySet().toArray(a);
+			return MyMap.this.toArray(iterator(), a);
 		}
 
 		@Override
@@ -824,15 +2124,27 @@ public class MyMap<K extends Comparable<K>, V> implements Map<K, V> {
 
 		@Override
 		public boolean retainAll(Collection<?> c) {
-			if(root == null) return false;
-			//FIXME: find out if the values have to match for removal
-			return root.entrySet().stream().filter(entry -> !c.contains(entry)).map(Entry::getKey).map(MyMap.this::remove).map(Objects::nonNull).count() > 0;
+			Objects.requireNonNull(c);
+			return MyMap.this.removeIf(entry -> !c.contains(entry));
 		}
 
+		/**
+		 * Like {@link #remove(Object)}, an entry is only removed if both its
+		 * key and its value match.
+		 */
 		@Override
 		public boolean removeAll(Collection<?> c) {
-			//FIXME: find out if the values have to match for removal
-			return c.stream().map(o -> (Entry<?, ?>) o).map(Entry::getKey).map(MyMap.this::remove).map(Objects::nonNull).count() > 0;
+			if(!cheaperOneByOne(c.size()))
+				return MyMap.this.removeIf(c::contains);
+			boolean modified = false;
+			for(Object entry : c)
+				modified |= remove(entry);
+			return modified;
+		}
+
+		@Override
+		public boolean removeIf(Predicate<? super Entry<K, V>> filter) {
+			return MyMap.this.removeIf(filter);
 		}
 
 		@Override
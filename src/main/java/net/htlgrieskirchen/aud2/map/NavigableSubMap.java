@@ -0,0 +1,386 @@
+package net.htlgrieskirchen.aud2.map;
+
+import java.util.*;
+
+/**
+ * A live view of the keys of a {@link NavigableMap} between two optional
+ * bounds, optionally in descending order.
+ * <p>
+ * All lookups are answered by the navigation methods of the backing map, so
+ * the view only ever touches the requested range. Iteration steps from one
+ * entry to the next with {@link NavigableMap#higherEntry}; backing maps that
+ * can do better override {@link #entryIterator()} and {@link #size()}.
+ *
+ * @param <K> the type of keys
+ * @param <V> the type of values
+ */
+class NavigableSubMap<K, V> extends AbstractMap<K, V> implements NavigableMap<K, V> {
+	final NavigableMap<K, V> m;
+
+	final boolean fromStart;
+	final K lo;
+	final boolean loInclusive;
+
+	final boolean toEnd;
+	final K hi;
+	final boolean hiInclusive;
+
+	final boolean descending;
+
+	NavigableSubMap(NavigableMap<K, V> m,
+	                boolean fromStart, K lo, boolean loInclusive,
+	                boolean toEnd, K hi, boolean hiInclusive,
+	                boolean descending) {
+		this.m = m;
+		if(!fromStart && !toEnd) {
+			if(compare(lo, hi) > 0)
+				throw new IllegalArgumentException("fromKey > toKey");
+		} else {
+			//Type check only, throws for incomparable or null keys
+			if(!fromStart)
+				compare(lo, lo);
+			if(!toEnd)
+				compare(hi, hi);
+		}
+		this.fromStart = fromStart;
+		this.lo = lo;
+		this.loInclusive = loInclusive;
+		this.toEnd = toEnd;
+		this.hi = hi;
+		this.hiInclusive = hiInclusive;
+		this.descending = descending;
+	}
+
+	/**
+	 * Creates a view over the same backing map with the given bounds.
+	 * Subclasses override this so that views of views keep their fast paths.
+	 */
+	NavigableSubMap<K, V> newView(boolean fromStart, K lo, boolean loInclusive,
+	                              boolean toEnd, K hi, boolean hiInclusive,
+	                              boolean descending) {
+		return new NavigableSubMap<>(m, fromStart, lo, loInclusive, toEnd, hi, hiInclusive, descending);
+	}
+
+	/**
+	 * @return an iterator over the entries of this view in view order
+	 */
+	Iterator<Entry<K, V>> entryIterator() {
+		return new Iterator<Entry<K, V>>() {
+			private Entry<K, V> next = firstEntry();
+			private Entry<K, V> lastReturned = null;
+
+			@Override
+			public boolean hasNext() {
+				return next != null;
+			}
+
+			@Override
+			public Entry<K, V> next() {
+				if(next == null) throw new NoSuchElementException();
+				lastReturned = next;
+				next = higherEntry(next.getKey());
+				return lastReturned;
+			}
+
+			@Override
+			public void remove() {
+				if(lastReturned == null) throw new IllegalStateException();
+				m.remove(lastReturned.getKey());
+				lastReturned = null;
+			}
+		};
+	}
+
+	@SuppressWarnings("unchecked")
+	final int compare(Object a, Object b) {
+		Comparator<? super K> comparator = m.comparator();
+		if(comparator == null)
+			return ((Comparable<Object>) a).compareTo(b);
+		return comparator.compare((K) a, (K) b);
+	}
+
+	final boolean tooLow(Object key) {
+		if(fromStart) return false;
+		int comparison = compare(key, lo);
+		return comparison < 0 || (comparison == 0 && !loInclusive);
+	}
+
+	final boolean tooHigh(Object key) {
+		if(toEnd) return false;
+		int comparison = compare(key, hi);
+		return comparison > 0 || (comparison == 0 && !hiInclusive);
+	}
+
+	final boolean inRange(Object key) {
+		return !tooLow(key) && !tooHigh(key);
+	}
+
+	/**
+	 * Like {@link #inRange(Object)}, but an exclusive bound of a new view may
+	 * also sit exactly on an exclusive bound of this view.
+	 */
+	private boolean inRange(Object key, boolean inclusive) {
+		if(inclusive) return inRange(key);
+		return (fromStart || compare(key, lo) >= 0) && (toEnd || compare(hi, key) >= 0);
+	}
+
+	private Entry<K, V> absLowest() {
+		Entry<K, V> entry = fromStart ? m.firstEntry() : loInclusive ? m.ceilingEntry(lo) : m.higherEntry(lo);
+		return entry == null || tooHigh(entry.getKey()) ? null : entry;
+	}
+
+	private Entry<K, V> absHighest() {
+		Entry<K, V> entry = toEnd ? m.lastEntry() : hiInclusive ? m.floorEntry(hi) : m.lowerEntry(hi);
+		return entry == null || tooLow(entry.getKey()) ? null : entry;
+	}
+
+	private Entry<K, V> absCeiling(K key) {
+		if(tooLow(key)) return absLowest();
+		Entry<K, V> entry = m.ceilingEntry(key);
+		return entry == null || tooHigh(entry.getKey()) ? null : entry;
+	}
+
+	private Entry<K, V> absHigher(K key) {
+		if(tooLow(key)) return absLowest();
+		Entry<K, V> entry = m.higherEntry(key);
+		return entry == null || tooHigh(entry.getKey()) ? null : entry;
+	}
+
+	private Entry<K, V> absFloor(K key) {
+		if(tooHigh(key)) return absHighest();
+		Entry<K, V> entry = m.floorEntry(key);
+		return entry == null || tooLow(entry.getKey()) ? null : entry;
+	}
+
+	private Entry<K, V> absLower(K key) {
+		if(tooHigh(key)) return absHighest();
+		Entry<K, V> entry = m.lowerEntry(key);
+		return entry == null || tooLow(entry.getKey()) ? null : entry;
+	}
+
+	private static <K> K keyOrNull(Entry<K, ?> entry) {
+		return entry == null ? null : entry.getKey();
+	}
+
+	private static <K> K keyOrThrow(Entry<K, ?> entry) {
+		if(entry == null) throw new NoSuchElementException();
+		return entry.getKey();
+	}
+
+	@Override
+	public int size() {
+		int size = 0;
+		for(Iterator<Entry<K, V>> iterator = entryIterator(); iterator.hasNext(); iterator.next())
+			size++;
+		return size;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return absLowest() == null;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return inRange(key) && m.containsKey(key);
+	}
+
+	@Override
+	public V get(Object key) {
+		return inRange(key) ? m.get(key) : null;
+	}
+
+	@Override
+	public V put(K key, V value) {
+		if(!inRange(key))
+			throw new IllegalArgumentException("key out of range");
+		return m.put(key, value);
+	}
+
+	@Override
+	public V remove(Object key) {
+		return inRange(key) ? m.remove(key) : null;
+	}
+
+	@Override
+	public Comparator<? super K> comparator() {
+		Comparator<? super K> comparator = m.comparator();
+		return descending ? Collections.reverseOrder(comparator) : comparator;
+	}
+
+	@Override
+	public Entry<K, V> firstEntry() {
+		return descending ? absHighest() : absLowest();
+	}
+
+	@Override
+	public Entry<K, V> lastEntry() {
+		return descending ? absLowest() : absHighest();
+	}
+
+	@Override
+	public K firstKey() {
+		return keyOrThrow(firstEntry());
+	}
+
+	@Override
+	public K lastKey() {
+		return keyOrThrow(lastEntry());
+	}
+
+	@Override
+	public Entry<K, V> pollFirstEntry() {
+		Entry<K, V> entry = firstEntry();
+		if(entry != null)
+			m.remove(entry.getKey());
+		return entry;
+	}
+
+	@Override
+	public Entry<K, V> pollLastEntry() {
+		Entry<K, V> entry = lastEntry();
+		if(entry != null)
+			m.remove(entry.getKey());
+		return entry;
+	}
+
+	@Override
+	public Entry<K, V> lowerEntry(K key) {
+		return descending ? absHigher(key) : absLower(key);
+	}
+
+	@Override
+	public K lowerKey(K key) {
+		return keyOrNull(lowerEntry(key));
+	}
+
+	@Override
+	public Entry<K, V> floorEntry(K key) {
+		return descending ? absCeiling(key) : absFloor(key);
+	}
+
+	@Override
+	public K floorKey(K key) {
+		return keyOrNull(floorEntry(key));
+	}
+
+	@Override
+	public Entry<K, V> ceilingEntry(K key) {
+		return descending ? absFloor(key) : absCeiling(key);
+	}
+
+	@Override
+	public K ceilingKey(K key) {
+		return keyOrNull(ceilingEntry(key));
+	}
+
+	@Override
+	public Entry<K, V> higherEntry(K key) {
+		return descending ? absLower(key) : absHigher(key);
+	}
+
+	@Override
+	public K higherKey(K key) {
+		return keyOrNull(higherEntry(key));
+	}
+
+	@Override
+	public NavigableMap<K, V> descendingMap() {
+		return newView(fromStart, lo, loInclusive, toEnd, hi, hiInclusive, !descending);
+	}
+
+	@Override
+	public NavigableSet<K> navigableKeySet() {
+		return new NavigableKeySet<>(this);
+	}
+
+	@Override
+	public Set<K> keySet() {
+		return navigableKeySet();
+	}
+
+	@Override
+	public NavigableSet<K> descendingKeySet() {
+		return descendingMap().navigableKeySet();
+	}
+
+	@Override
+	public NavigableMap<K, V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+		if(!inRange(fromKey, fromInclusive))
+			throw new IllegalArgumentException("fromKey out of range");
+		if(!inRange(toKey, toInclusive))
+			throw new IllegalArgumentException("toKey out of range");
+		if(descending)
+			return newView(false, toKey, toInclusive, false, fromKey, fromInclusive, true);
+		return newView(false, fromKey, fromInclusive, false, toKey, toInclusive, false);
+	}
+
+	@Override
+	public NavigableMap<K, V> headMap(K toKey, boolean inclusive) {
+		if(!inRange(toKey, inclusive))
+			throw new IllegalArgumentException("toKey out of range");
+		if(descending)
+			return newView(false, toKey, inclusive, toEnd, hi, hiInclusive, true);
+		return newView(fromStart, lo, loInclusive, false, toKey, inclusive, false);
+	}
+
+	@Override
+	public NavigableMap<K, V> tailMap(K fromKey, boolean inclusive) {
+		if(!inRange(fromKey, inclusive))
+			throw new IllegalArgumentException("fromKey out of range");
+		if(descending)
+			return newView(fromStart, lo, loInclusive, false, fromKey, inclusive, true);
+		return newView(false, fromKey, inclusive, toEnd, hi, hiInclusive, false);
+	}
+
+	@Override
+	public SortedMap<K, V> subMap(K fromKey, K toKey) {
+		return subMap(fromKey, true, toKey, false);
+	}
+
+	@Override
+	public SortedMap<K, V> headMap(K toKey) {
+		return headMap(toKey, false);
+	}
+
+	@Override
+	public SortedMap<K, V> tailMap(K fromKey) {
+		return tailMap(fromKey, true);
+	}
+
+	@Override
+	public Set<Entry<K, V>> entrySet() {
+		return new AbstractSet<Entry<K, V>>() {
+			@Override
+			public Iterator<Entry<K, V>> iterator() {
+				return entryIterator();
+			}
+
+			@Override
+			public int size() {
+				return NavigableSubMap.this.size();
+			}
+
+			@Override
+			public boolean isEmpty() {
+				return NavigableSubMap.this.isEmpty();
+			}
+
+			@Override
+			public boolean contains(Object o) {
+				if(!(o instanceof Entry)) return false;
+				Entry<?, ?> entry = (Entry<?, ?>) o;
+				Object key = entry.getKey();
+				return containsKey(key) && Objects.equals(get(key), entry.getValue());
+			}
+
+			@Override
+			public boolean remove(Object o) {
+				if(!(o instanceof Entry)) return false;
+				Entry<?, ?> entry = (Entry<?, ?>) o;
+				//Atomic wherever the view overrides remove(key, value) atomically
+				return NavigableSubMap.this.remove(entry.getKey(), entry.getValue());
+			}
+		};
+	}
+}
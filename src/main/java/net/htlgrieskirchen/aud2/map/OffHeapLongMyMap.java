@@ -0,0 +1,407 @@
+package net.htlgrieskirchen.aud2.map;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * A map from primitive {@code long} keys to values whose tree lives outside
+ * the Java heap.
+ * <p>
+ * Works like a {@link LongMyMap}, but a node is not an object. It is a
+ * fixed-size record in a direct {@link ByteBuffer} holding the key, the
+ * indexes of its parent and children and its height. Values are kept in
+ * on-heap arrays, one per buffer, at the same index as their node. For tens
+ * of millions of entries the garbage collector therefore sees a handful of
+ * buffers and arrays instead of one object per entry, and no per-object
+ * headers are paid. Buffers and value arrays come in fixed-size chunks so
+ * that growing never copies the tree or the values, and the slots of
+ * removed nodes are reused through a free list.
+ *
+ * @param <V> the type of values
+ */
+public class OffHeapLongMyMap<V> {
+	private static final int NIL = -1;
+
+	private static final int KEY = 0;
+	private static final int PARENT = 8;
+	private static final int LEFT = 12;
+	private static final int RIGHT = 16;
+	private static final int HEIGHT = 20;
+	private static final int NODE_BYTES = 24;
+
+	private static final int CHUNK_SHIFT = 16;
+	private static final int CHUNK_NODES = 1 << CHUNK_SHIFT;
+	private static final int CHUNK_MASK = CHUNK_NODES - 1;
+
+	private ByteBuffer[] chunks = new ByteBuffer[0];
+	/**
+	 * The values of the nodes in the buffer with the same index
+	 */
+	private Object[][] values = new Object[0][];
+	/**
+	 * Number of node slots ever handed out, free or not
+	 */
+	private int allocated = 0;
+	/**
+	 * Head of the list of free slots, chained through their left index
+	 */
+	private int free = NIL;
+	private int root = NIL;
+	private int size = 0;
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return root == NIL;
+	}
+
+	public boolean containsKey(long key) {
+		return find(key) != NIL;
+	}
+
+	public V get(long key) {
+		int node = find(key);
+		return node == NIL ? null : value(node);
+	}
+
+	/**
+	 * @return the previous value of the key, or null if it was not in the map
+	 */
+	public V put(long key, V value) {
+		if(root == NIL) {
+			root = allocate(key, value, NIL);
+			size++;
+			return null;
+		}
+		int current = root;
+		while(true) {
+			long currentKey = key(current);
+			if(key < currentKey) {
+				if(left(current) == NIL) {
+					setLeft(current, allocate(key, value, current));
+					break;
+				}
+				current = left(current);
+			} else if(key > currentKey) {
+				if(right(current) == NIL) {
+					setRight(current, allocate(key, value, current));
+					break;
+				}
+				current = right(current);
+			} else {
+				V oldValue = value(current);
+				setValue(current, value);
+				return oldValue;
+			}
+		}
+		size++;
+		fixAfterModification(current);
+		return null;
+	}
+
+	/**
+	 * @return the value of the removed key, or null if it was not in the map
+	 */
+	public V remove(long key) {
+		int node = find(key);
+		if(node == NIL)
+			return null;
+		V value = value(node);
+		unlink(node);
+		release(node);
+		return value;
+	}
+
+	/**
+	 * Removes all entries and drops the off-heap buffers.
+	 */
+	public void clear() {
+		chunks = new ByteBuffer[0];
+		values = new Object[0][];
+		allocated = 0;
+		free = NIL;
+		root = NIL;
+		size = 0;
+	}
+
+	/**
+	 * @throws NoSuchElementException if the map is empty
+	 */
+	public long firstKey() {
+		if(root == NIL) throw new NoSuchElementException();
+		return key(first(root));
+	}
+
+	/**
+	 * @throws NoSuchElementException if the map is empty
+	 */
+	public long lastKey() {
+		if(root == NIL) throw new NoSuchElementException();
+		int node = root;
+		while(right(node) != NIL)
+			node = right(node);
+		return key(node);
+	}
+
+	/**
+	 * Calls the action for every entry in ascending key order.
+	 */
+	public void forEach(LongMyMap.EntryConsumer<? super V> action) {
+		for(int node = root == NIL ? NIL : first(root); node != NIL; node = successor(node))
+			action.accept(key(node), value(node));
+	}
+
+	/**
+	 * @return the number of nodes on the longest path from the root to a leaf
+	 */
+	public int height() {
+		return height(root);
+	}
+
+	/**
+	 * @return the number of bytes reserved outside the heap for nodes
+	 */
+	public long offHeapBytes() {
+		return (long) chunks.length * CHUNK_NODES * NODE_BYTES;
+	}
+
+	/**
+	 * Verifies order, parent links, cached heights and AVL balance of the
+	 * whole tree and that every slot is either in the tree or free, like
+	 * {@link LongMyMap#checkInvariants()}.
+	 *
+	 * @throws IllegalStateException if the tree is corrupt
+	 */
+	public void checkInvariants() {
+		if(root != NIL && parent(root) != NIL)
+			throw new IllegalStateException("Root has a parent");
+		int count = 0;
+		int previous = NIL;
+		for(int node = root == NIL ? NIL : first(root); node != NIL; node = successor(node)) {
+			if(previous != NIL && key(previous) >= key(node))
+				throw new IllegalStateException("Keys out of order: " + key(previous) + " before " + key(node));
+			if((left(node) != NIL && parent(left(node)) != node) || (right(node) != NIL && parent(right(node)) != node))
+				throw new IllegalStateException("Broken parent link below " + key(node));
+			if(height(node) != 1 + Math.max(height(left(node)), height(right(node))))
+				throw new IllegalStateException("Stale height at " + key(node));
+			if(Math.abs(height(left(node)) - height(right(node))) > 1)
+				throw new IllegalStateException("Unbalanced at " + key(node));
+			previous = node;
+			count++;
+		}
+		if(count != size)
+			throw new IllegalStateException("Size is " + size + " but the tree has " + count + " entries");
+		int freeCount = 0;
+		for(int node = free; node != NIL; node = left(node))
+			freeCount++;
+		if(count + freeCount != allocated)
+			throw new IllegalStateException(allocated + " slots allocated but " + count + " used and " + freeCount + " free");
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("{");
+		forEach((key, value) -> sb.append(key).append("=").append(value).append(", "));
+		if(size > 0)
+			sb.setLength(sb.length() - 2);
+		return sb.append("}").toString();
+	}
+
+	private int allocate(long key, V value, int parent) {
+		int node;
+		if(free != NIL) {
+			node = free;
+			free = left(node);
+		} else {
+			node = allocated++;
+			if(node >>> CHUNK_SHIFT == chunks.length) {
+				chunks = Arrays.copyOf(chunks, chunks.length + 1);
+				chunks[chunks.length - 1] = ByteBuffer.allocateDirect(CHUNK_NODES * NODE_BYTES).order(ByteOrder.nativeOrder());
+				values = Arrays.copyOf(values, chunks.length);
+				values[values.length - 1] = new Object[CHUNK_NODES];
+			}
+		}
+		ByteBuffer chunk = chunk(node);
+		int offset = offset(node);
+		chunk.putLong(offset + KEY, key);
+		chunk.putInt(offset + PARENT, parent);
+		chunk.putInt(offset + LEFT, NIL);
+		chunk.putInt(offset + RIGHT, NIL);
+		chunk.putInt(offset + HEIGHT, 1);
+		setValue(node, value);
+		return node;
+	}
+
+	private void release(int node) {
+		setValue(node, null);
+		setLeft(node, free);
+		free = node;
+	}
+
+	private int find(long key) {
+		int node = root;
+		while(node != NIL) {
+			long nodeKey = key(node);
+			if(key < nodeKey)
+				node = left(node);
+			else if(key > nodeKey)
+				node = right(node);
+			else
+				return node;
+		}
+		return NIL;
+	}
+
+	private void unlink(int node) {
+		int fixFrom;
+		if(left(node) == NIL || right(node) == NIL) {
+			fixFrom = parent(node);
+			replace(node, left(node) == NIL ? right(node) : left(node));
+		} else {
+			int successor = first(right(node));
+			if(parent(successor) != node) {
+				fixFrom = parent(successor);
+				replace(successor, right(successor));
+				setRight(successor, right(node));
+				setParent(right(successor), successor);
+			} else {
+				fixFrom = successor;
+			}
+			replace(node, successor);
+			setLeft(successor, left(node));
+			setParent(left(successor), successor);
+		}
+		size--;
+		if(fixFrom != NIL)
+			fixAfterModification(fixFrom);
+	}
+
+	private void replace(int node, int replacement) {
+		int parent = parent(node);
+		if(parent == NIL)
+			root = replacement;
+		else if(left(parent) == node)
+			setLeft(parent, replacement);
+		else
+			setRight(parent, replacement);
+		if(replacement != NIL)
+			setParent(replacement, parent);
+	}
+
+	private void fixAfterModification(int node) {
+		for(; node != NIL; node = parent(node)) {
+			updateHeight(node);
+			int balance = height(left(node)) - height(right(node));
+			if(balance > 1) {
+				if(height(left(left(node))) < height(right(left(node))))
+					rotateLeft(left(node));
+				node = rotateRight(node);
+			} else if(balance < -1) {
+				if(height(right(right(node))) < height(left(right(node))))
+					rotateRight(right(node));
+				node = rotateLeft(node);
+			}
+		}
+	}
+
+	private int rotateLeft(int node) {
+		int pivot = right(node);
+		replace(node, pivot);
+		setRight(node, left(pivot));
+		if(right(node) != NIL)
+			setParent(right(node), node);
+		setLeft(pivot, node);
+		setParent(node, pivot);
+		updateHeight(node);
+		updateHeight(pivot);
+		return pivot;
+	}
+
+	private int rotateRight(int node) {
+		int pivot = left(node);
+		replace(node, pivot);
+		setLeft(node, right(pivot));
+		if(left(node) != NIL)
+			setParent(left(node), node);
+		setRight(pivot, node);
+		setParent(node, pivot);
+		updateHeight(node);
+		updateHeight(pivot);
+		return pivot;
+	}
+
+	private void updateHeight(int node) {
+		chunk(node).putInt(offset(node) + HEIGHT, 1 + Math.max(height(left(node)), height(right(node))));
+	}
+
+	private int first(int node) {
+		while(left(node) != NIL)
+			node = left(node);
+		return node;
+	}
+
+	private int successor(int node) {
+		if(right(node) != NIL)
+			return first(right(node));
+		int child = node;
+		int parent = parent(node);
+		while(parent != NIL && right(parent) == child) {
+			child = parent;
+			parent = parent(parent);
+		}
+		return parent;
+	}
+
+	private ByteBuffer chunk(int node) {
+		return chunks[node >>> CHUNK_SHIFT];
+	}
+
+	private static int offset(int node) {
+		return (node & CHUNK_MASK) * NODE_BYTES;
+	}
+
+	private long key(int node) {
+		return chunk(node).getLong(offset(node) + KEY);
+	}
+
+	@SuppressWarnings("unchecked")
+	private V value(int node) {
+		return (V) values[node >>> CHUNK_SHIFT][node & CHUNK_MASK];
+	}
+
+	private void setValue(int node, V value) {
+		values[node >>> CHUNK_SHIFT][node & CHUNK_MASK] = value;
+	}
+
+	private int parent(int node) {
+		return chunk(node).getInt(offset(node) + PARENT);
+	}
+
+	private int left(int node) {
+		return chunk(node).getInt(offset(node) + LEFT);
+	}
+
+	private int right(int node) {
+		return chunk(node).getInt(offset(node) + RIGHT);
+	}
+
+	private int height(int node) {
+		return node == NIL ? 0 : chunk(node).getInt(offset(node) + HEIGHT);
+	}
+
+	private void setParent(int node, int parent) {
+		chunk(node).putInt(offset(node) + PARENT, parent);
+	}
+
+	private void setLeft(int node, int left) {
+		chunk(node).putInt(offset(node) + LEFT, left);
+	}
+
+	private void setRight(int node, int right) {
+		chunk(node).putInt(offset(node) + RIGHT, right);
+	}
+}
@@ -0,0 +1,305 @@
+package net.htlgrieskirchen.aud2.map;
+
+import net.htlgrieskirchen.aud2.map.PersistentTree.Node;
+
+import java.util.*;
+
+/**
+ * An immutable sorted map whose updates return new versions.
+ * <p>
+ * {@link #with} and {@link #without} copy only the O(log n) nodes on the
+ * path to the changed key and share everything else with this version, so
+ * keeping old versions around is cheap and each of them can be read and
+ * iterated from any thread without locking. The methods of {@link Map} that
+ * would modify the map throw {@link UnsupportedOperationException}.
+ * <p>
+ * A map that keeps changing while others read it should be a
+ * {@link ConcurrentMyMap}, whose {@link ConcurrentMyMap#snapshot()} returns
+ * its current version in O(1).
+ *
+ * @param <K> the type of keys
+ * @param <V> the type of values
+ */
+public class PersistentMyMap<K, V> extends AbstractMap<K, V> implements NavigableMap<K, V> {
+	private final Comparator<? super K> comparator;
+	private final Node<K, V> root;
+
+	/**
+	 * Creates an empty map that orders its keys by their natural ordering.
+	 */
+	public PersistentMyMap() {
+		this(null);
+	}
+
+	/**
+	 * Creates an empty map that orders its keys with the given comparator,
+	 * or by their natural ordering if it is null.
+	 */
+	public PersistentMyMap(Comparator<? super K> comparator) {
+		this(comparator, null);
+	}
+
+	PersistentMyMap(Comparator<? super K> comparator, Node<K, V> root) {
+		this.comparator = comparator;
+		this.root = root;
+	}
+
+	/**
+	 * @return a map with the key mapped to the value, or this map if it already was
+	 */
+	public PersistentMyMap<K, V> with(K key, V value) {
+		return derive(PersistentTree.put(root, key, value, comparator));
+	}
+
+	/**
+	 * @return a map without the key, or this map if the key was not in it
+	 */
+	public PersistentMyMap<K, V> without(Object key) {
+		return derive(PersistentTree.remove(root, key, comparator));
+	}
+
+	private PersistentMyMap<K, V> derive(Node<K, V> updated) {
+		return updated == root ? this : new PersistentMyMap<>(comparator, updated);
+	}
+
+	@Override
+	public int size() {
+		return PersistentTree.size(root);
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return root == null;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return PersistentTree.find(root, key, comparator) != null;
+	}
+
+	@Override
+	public V get(Object key) {
+		Node<K, V> node = PersistentTree.find(root, key, comparator);
+		return node == null ? null : node.value;
+	}
+
+	@Override
+	public Comparator<? super K> comparator() {
+		return comparator;
+	}
+
+	@Override
+	public Entry<K, V> firstEntry() {
+		return PersistentTree.first(root);
+	}
+
+	@Override
+	public Entry<K, V> lastEntry() {
+		return PersistentTree.last(root);
+	}
+
+	@Override
+	public K firstKey() {
+		return keyOrThrow(firstEntry());
+	}
+
+	@Override
+	public K lastKey() {
+		return keyOrThrow(lastEntry());
+	}
+
+	@Override
+	public Entry<K, V> pollFirstEntry() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public Entry<K, V> pollLastEntry() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Throws even if the key is not in the map, use {@link #without} instead.
+	 */
+	@Override
+	public V remove(Object key) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public Entry<K, V> lowerEntry(K key) {
+		return PersistentTree.highestBelow(root, key, false, comparator);
+	}
+
+	@Override
+	public K lowerKey(K key) {
+		return keyOrNull(lowerEntry(key));
+	}
+
+	@Override
+	public Entry<K, V> floorEntry(K key) {
+		return PersistentTree.highestBelow(root, key, true, comparator);
+	}
+
+	@Override
+	public K floorKey(K key) {
+		return keyOrNull(floorEntry(key));
+	}
+
+	@Override
+	public Entry<K, V> ceilingEntry(K key) {
+		return PersistentTree.lowestAbove(root, key, true, comparator);
+	}
+
+	@Override
+	public K ceilingKey(K key) {
+		return keyOrNull(ceilingEntry(key));
+	}
+
+	@Override
+	public Entry<K, V> higherEntry(K key) {
+		return PersistentTree.lowestAbove(root, key, false, comparator);
+	}
+
+	@Override
+	public K higherKey(K key) {
+		return keyOrNull(higherEntry(key));
+	}
+
+	private static <K> K keyOrNull(Entry<K, ?> entry) {
+		return entry == null ? null : entry.getKey();
+	}
+
+	private static <K> K keyOrThrow(Entry<K, ?> entry) {
+		if(entry == null) throw new NoSuchElementException();
+		return entry.getKey();
+	}
+
+	@Override
+	public NavigableMap<K, V> descendingMap() {
+		return new SubMap(true, null, false, true, null, false, true);
+	}
+
+	@Override
+	public NavigableSet<K> navigableKeySet() {
+		return new NavigableKeySet<>(this);
+	}
+
+	@Override
+	public Set<K> keySet() {
+		return navigableKeySet();
+	}
+
+	@Override
+	public NavigableSet<K> descendingKeySet() {
+		return descendingMap().navigableKeySet();
+	}
+
+	@Override
+	public NavigableMap<K, V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+		return new SubMap(false, fromKey, fromInclusive, false, toKey, toInclusive, false);
+	}
+
+	@Override
+	public NavigableMap<K, V> headMap(K toKey, boolean inclusive) {
+		return new SubMap(true, null, false, false, toKey, inclusive, false);
+	}
+
+	@Override
+	public NavigableMap<K, V> tailMap(K fromKey, boolean inclusive) {
+		return new SubMap(false, fromKey, inclusive, true, null, false, false);
+	}
+
+	@Override
+	public SortedMap<K, V> subMap(K fromKey, K toKey) {
+		return subMap(fromKey, true, toKey, false);
+	}
+
+	@Override
+	public SortedMap<K, V> headMap(K toKey) {
+		return headMap(toKey, false);
+	}
+
+	@Override
+	public SortedMap<K, V> tailMap(K fromKey) {
+		return tailMap(fromKey, true);
+	}
+
+	@Override
+	public Set<Entry<K, V>> entrySet() {
+		return new AbstractSet<Entry<K, V>>() {
+			@Override
+			public Iterator<Entry<K, V>> iterator() {
+				return new PersistentTree.EntryIterator<>(root, null, comparator);
+			}
+
+			@Override
+			public int size() {
+				return PersistentMyMap.this.size();
+			}
+
+			@Override
+			public boolean contains(Object o) {
+				if(!(o instanceof Entry)) return false;
+				Entry<?, ?> entry = (Entry<?, ?>) o;
+				Node<K, V> node = PersistentTree.find(root, entry.getKey(), comparator);
+				return node != null && Objects.equals(node.value, entry.getValue());
+			}
+		};
+	}
+
+	/**
+	 * @return the number of nodes on the longest path from the root to a leaf
+	 */
+	public int height() {
+		return PersistentTree.height(root);
+	}
+
+	/**
+	 * Verifies order, cached heights and sizes and AVL balance, like
+	 * {@link MyMap#checkInvariants()}.
+	 *
+	 * @throws IllegalStateException if the tree is corrupt
+	 */
+	public void checkInvariants() {
+		PersistentTree.checkInvariants(root, comparator);
+	}
+
+	/**
+	 * A range view that iterates and counts directly on the tree.
+	 */
+	private class SubMap extends NavigableSubMap<K, V> {
+		SubMap(boolean fromStart, K lo, boolean loInclusive,
+		       boolean toEnd, K hi, boolean hiInclusive,
+		       boolean descending) {
+			super(PersistentMyMap.this, fromStart, lo, loInclusive, toEnd, hi, hiInclusive, descending);
+		}
+
+		@Override
+		NavigableSubMap<K, V> newView(boolean fromStart, K lo, boolean loInclusive,
+		                              boolean toEnd, K hi, boolean hiInclusive,
+		                              boolean descending) {
+			return new SubMap(fromStart, lo, loInclusive, toEnd, hi, hiInclusive, descending);
+		}
+
+		@Override
+		Iterator<Entry<K, V>> entryIterator() {
+			return new PersistentTree.EntryIterator<>(root, this, comparator);
+		}
+
+		@Override
+		public int size() {
+			return PersistentTree.countIn(root, this, comparator);
+		}
+
+		@Override
+		public Entry<K, V> pollFirstEntry() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Entry<K, V> pollLastEntry() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
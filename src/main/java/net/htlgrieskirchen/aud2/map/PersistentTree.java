@@ -0,0 +1,372 @@
+package net.htlgrieskirchen.aud2.map;
+
+import java.util.*;
+
+/**
+ * Operations on an immutable, path-copying AVL tree.
+ * <p>
+ * Nodes never change after construction. An update copies only the nodes on
+ * the path from the root to the changed key (O(log n) of them) and shares
+ * every other subtree with the previous version, so any root ever returned
+ * stays a consistent snapshot that can be read from any thread without
+ * locking. A null root is the empty tree.
+ */
+final class PersistentTree {
+	private PersistentTree() {
+	}
+
+	/**
+	 * An immutable tree node, which doubles as the snapshot entry handed out
+	 * by navigation methods and iterators.
+	 */
+	static final class Node<K, V> implements Map.Entry<K, V> {
+		final K key;
+		final V value;
+		final Node<K, V> left;
+		final Node<K, V> right;
+		final int height;
+		final int size;
+
+		Node(K key, V value, Node<K, V> left, Node<K, V> right) {
+			this.key = key;
+			this.value = value;
+			this.left = left;
+			this.right = right;
+			this.height = 1 + Math.max(height(left), height(right));
+			this.size = 1 + size(left) + size(right);
+		}
+
+		@Override
+		public K getKey() {
+			return key;
+		}
+
+		@Override
+		public V getValue() {
+			return value;
+		}
+
+		@Override
+		public V setValue(V value) {
+			throw new UnsupportedOperationException("Snapshot entries are immutable");
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(this == o) return true;
+			if(!(o instanceof Map.Entry)) return false;
+			Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+			return Objects.equals(key, entry.getKey()) && Objects.equals(value, entry.getValue());
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hashCode(key) ^ Objects.hashCode(value);
+		}
+
+		@Override
+		public String toString() {
+			return key + "=" + value;
+		}
+	}
+
+	static int height(Node<?, ?> node) {
+		return node == null ? 0 : node.height;
+	}
+
+	static int size(Node<?, ?> node) {
+		return node == null ? 0 : node.size;
+	}
+
+	@SuppressWarnings("unchecked")
+	static <K> int compare(Comparator<? super K> comparator, Object key1, Object key2) {
+		if(comparator == null)
+			return ((Comparable<Object>) key1).compareTo(key2);
+		return comparator.compare((K) key1, (K) key2);
+	}
+
+	static <K, V> Node<K, V> find(Node<K, V> node, Object key, Comparator<? super K> comparator) {
+		while(node != null) {
+			int comparison = compare(comparator, key, node.key);
+			if(comparison == 0) return node;
+			node = comparison < 0 ? node.left : node.right;
+		}
+		return null;
+	}
+
+	/**
+	 * @return a tree in which the key is mapped to the value. If the key is
+	 * already present it keeps its original key object, like in a TreeMap.
+	 */
+	static <K, V> Node<K, V> put(Node<K, V> node, K key, V value, Comparator<? super K> comparator) {
+		if(node == null) {
+			compare(comparator, key, key); //Type and null check
+			return new Node<>(key, value, null, null);
+		}
+		int comparison = compare(comparator, key, node.key);
+		if(comparison < 0)
+			return balance(node.key, node.value, put(node.left, key, value, comparator), node.right);
+		if(comparison > 0)
+			return balance(node.key, node.value, node.left, put(node.right, key, value, comparator));
+		if(node.value == value)
+			return node;
+		return new Node<>(node.key, value, node.left, node.right);
+	}
+
+	/**
+	 * @return a tree without the key, or the same tree if the key was not in it
+	 */
+	static <K, V> Node<K, V> remove(Node<K, V> node, Object key, Comparator<? super K> comparator) {
+		if(node == null)
+			return null;
+		int comparison = compare(comparator, key, node.key);
+		if(comparison < 0) {
+			Node<K, V> left = remove(node.left, key, comparator);
+			return left == node.left ? node : balance(node.key, node.value, left, node.right);
+		}
+		if(comparison > 0) {
+			Node<K, V> right = remove(node.right, key, comparator);
+			return right == node.right ? node : balance(node.key, node.value, node.left, right);
+		}
+		if(node.left == null)
+			return node.right;
+		if(node.right == null)
+			return node.left;
+		Node<K, V> successor = first(node.right);
+		return balance(successor.key, successor.value, node.left, removeFirst(node.right));
+	}
+
+	private static <K, V> Node<K, V> removeFirst(Node<K, V> node) {
+		if(node.left == null)
+			return node.right;
+		return balance(node.key, node.value, removeFirst(node.left), node.right);
+	}
+
+	/**
+	 * Creates a node from the given parts, rotating once or twice if the
+	 * subtrees differ in height by two.
+	 */
+	private static <K, V> Node<K, V> balance(K key, V value, Node<K, V> left, Node<K, V> right) {
+		if(height(left) > height(right) + 1) {
+			if(height(left.left) >= height(left.right))
+				return new Node<>(left.key, left.value, left.left, new Node<>(key, value, left.right, right));
+			Node<K, V> pivot = left.right;
+			return new Node<>(pivot.key, pivot.value, new Node<>(left.key, left.value, left.left, pivot.left), new Node<>(key, value, pivot.right, right));
+		}
+		if(height(right) > height(left) + 1) {
+			if(height(right.right) >= height(right.left))
+				return new Node<>(right.key, right.value, new Node<>(key, value, left, right.left), right.right);
+			Node<K, V> pivot = right.left;
+			return new Node<>(pivot.key, pivot.value, new Node<>(key, value, left, pivot.left), new Node<>(right.key, right.value, pivot.right, right.right));
+		}
+		return new Node<>(key, value, left, right);
+	}
+
+	static <K, V> Node<K, V> first(Node<K, V> node) {
+		if(node == null) return null;
+		while(node.left != null)
+			node = node.left;
+		return node;
+	}
+
+	static <K, V> Node<K, V> last(Node<K, V> node) {
+		if(node == null) return null;
+		while(node.right != null)
+			node = node.right;
+		return node;
+	}
+
+	/**
+	 * @return the node with the smallest key above the given one (or equal
+	 * to it if inclusive), or null if there is none
+	 */
+	static <K, V> Node<K, V> lowestAbove(Node<K, V> node, Object key, boolean inclusive, Comparator<? super K> comparator) {
+		Node<K, V> candidate = null;
+		while(node != null) {
+			int comparison = compare(comparator, node.key, key);
+			if(comparison == 0 && inclusive) return node;
+			if(comparison > 0) {
+				candidate = node;
+				node = node.left;
+			} else {
+				node = node.right;
+			}
+		}
+		return candidate;
+	}
+
+	/**
+	 * @return the node with the largest key below the given one (or equal
+	 * to it if inclusive), or null if there is none
+	 */
+	static <K, V> Node<K, V> highestBelow(Node<K, V> node, Object key, boolean inclusive, Comparator<? super K> comparator) {
+		Node<K, V> candidate = null;
+		while(node != null) {
+			int comparison = compare(comparator, node.key, key);
+			if(comparison == 0 && inclusive) return node;
+			if(comparison < 0) {
+				candidate = node;
+				node = node.right;
+			} else {
+				node = node.left;
+			}
+		}
+		return candidate;
+	}
+
+	/**
+	 * @return the number of keys smaller than the given one (or equal to it if inclusive)
+	 */
+	static <K> int countBelow(Node<K, ?> node, Object key, boolean inclusive, Comparator<? super K> comparator) {
+		int count = 0;
+		while(node != null) {
+			int comparison = compare(comparator, node.key, key);
+			if(comparison < 0 || (comparison == 0 && inclusive)) {
+				count += 1 + size(node.left);
+				node = node.right;
+			} else {
+				node = node.left;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return the number of keys within the bounds of the view
+	 */
+	static <K> int countIn(Node<K, ?> root, NavigableSubMap<K, ?> range, Comparator<? super K> comparator) {
+		int below = range.toEnd ? size(root) : countBelow(root, range.hi, range.hiInclusive, comparator);
+		int tooLow = range.fromStart ? 0 : countBelow(root, range.lo, !range.loInclusive, comparator);
+		return Math.max(0, below - tooLow);
+	}
+
+	/**
+	 * Builds a perfectly balanced tree from the next hi - lo + 1 entries,
+	 * which have to be in strictly ascending key order.
+	 */
+	static <K, V> Node<K, V> build(int lo, int hi, Iterator<? extends Map.Entry<? extends K, ? extends V>> entries) {
+		if(lo > hi)
+			return null;
+		int mid = (lo + hi) >>> 1;
+		Node<K, V> left = build(lo, mid - 1, entries);
+		Map.Entry<? extends K, ? extends V> entry = entries.next();
+		return new Node<>(entry.getKey(), entry.getValue(), left, build(mid + 1, hi, entries));
+	}
+
+	/**
+	 * Iterates over a snapshot in ascending or descending order with an
+	 * explicit stack of the nodes still to visit, since nodes have no parent
+	 * links. The iterator starts at the given bound and never ends on its
+	 * own before the snapshot does; callers check the other bound.
+	 */
+	static final class SnapshotIterator<K, V> implements Iterator<Node<K, V>> {
+		private final Deque<Node<K, V>> stack = new ArrayDeque<>();
+		private final boolean descending;
+
+		/**
+		 * @param fromStart if true, start at the first node in iteration order and ignore from
+		 * @param from      the key to start at
+		 * @param inclusive whether a node with the key from is included
+		 */
+		SnapshotIterator(Node<K, V> root, boolean fromStart, Object from, boolean inclusive, boolean descending, Comparator<? super K> comparator) {
+			this.descending = descending;
+			Node<K, V> node = root;
+			while(node != null) {
+				if(fromStart) {
+					stack.push(node);
+					node = descending ? node.right : node.left;
+					continue;
+				}
+				int comparison = compare(comparator, node.key, from);
+				if(descending)
+					comparison = -comparison;
+				if(comparison > 0 || (comparison == 0 && inclusive)) {
+					stack.push(node);
+					if(comparison == 0) break;
+					node = descending ? node.right : node.left;
+				} else {
+					node = descending ? node.left : node.right;
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return !stack.isEmpty();
+		}
+
+		@Override
+		public Node<K, V> next() {
+			if(stack.isEmpty()) throw new NoSuchElementException();
+			Node<K, V> next = stack.pop();
+			for(Node<K, V> node = descending ? next.left : next.right; node != null; node = descending ? node.right : node.left)
+				stack.push(node);
+			return next;
+		}
+	}
+
+	/**
+	 * Iterates over the entries of a snapshot within the bounds of a view,
+	 * in the order of the view.
+	 */
+	static class EntryIterator<K, V> implements Iterator<Map.Entry<K, V>> {
+		private final SnapshotIterator<K, V> snapshot;
+		private final NavigableSubMap<K, V> range;
+		private Node<K, V> next;
+
+		/**
+		 * @param range the view to iterate, or null for the whole snapshot in ascending order
+		 */
+		EntryIterator(Node<K, V> root, NavigableSubMap<K, V> range, Comparator<? super K> comparator) {
+			if(range == null)
+				this.snapshot = new SnapshotIterator<>(root, true, null, true, false, comparator);
+			else if(range.descending)
+				this.snapshot = new SnapshotIterator<>(root, range.toEnd, range.hi, range.hiInclusive, true, comparator);
+			else
+				this.snapshot = new SnapshotIterator<>(root, range.fromStart, range.lo, range.loInclusive, false, comparator);
+			this.range = range;
+			this.next = advance();
+		}
+
+		private Node<K, V> advance() {
+			if(!snapshot.hasNext())
+				return null;
+			Node<K, V> node = snapshot.next();
+			if(range != null && (range.descending ? range.tooLow(node.key) : range.tooHigh(node.key)))
+				return null;
+			return node;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override
+		public Map.Entry<K, V> next() {
+			if(next == null) throw new NoSuchElementException();
+			Node<K, V> result = next;
+			next = advance();
+			return result;
+		}
+	}
+
+	/**
+	 * Verifies order, cached heights and sizes and AVL balance.
+	 *
+	 * @throws IllegalStateException if the tree is corrupt
+	 */
+	static <K> void checkInvariants(Node<K, ?> root, Comparator<? super K> comparator) {
+		Node<K, ?> previous = null;
+		for(Iterator<? extends Node<K, ?>> iterator = new SnapshotIterator<>(root, true, null, true, false, comparator); iterator.hasNext(); ) {
+			Node<K, ?> node = iterator.next();
+			if(previous != null && compare(comparator, previous.key, node.key) >= 0)
+				throw new IllegalStateException("Keys out of order: " + previous + " before " + node);
+			if(node.height != 1 + Math.max(height(node.left), height(node.right)) || node.size != 1 + size(node.left) + size(node.right))
+				throw new IllegalStateException("Stale height or size at " + node);
+			if(Math.abs(height(node.left) - height(node.right)) > 1)
+				throw new IllegalStateException("Unbalanced at " + node);
+			previous = node;
+		}
+	}
+}
@@ -0,0 +1,147 @@
+package net.htlgrieskirchen.aud2.map;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class BTreeMyMapTest {
+	private static final int[] ORDERS = {4, 5, 7, 32, BTreeMyMap.DEFAULT_ORDER, 128};
+
+	@Test
+	public void matchesTreeMap() {
+		for(int order : ORDERS) {
+			BTreeMyMap<Integer, String> map = new BTreeMyMap<>(order);
+			TreeMap<Integer, String> treeMap = new TreeMap<>();
+			Random random = new Random(order);
+			for(int i = 0; i < 30_000; i++) {
+				int key = random.nextInt(3_000);
+				if(random.nextInt(2) == 0) {
+					assertEquals(treeMap.remove(key), map.remove(key));
+				} else {
+					String value = Integer.toString(i);
+					assertEquals(treeMap.put(key, value), map.put(key, value));
+				}
+				assertEquals(treeMap.get(key), map.get(key));
+				if(i % 1_000 == 0)
+					map.checkInvariants();
+			}
+			map.checkInvariants();
+			assertEquals(treeMap, map);
+			assertEquals(new ArrayList<>(treeMap.keySet()), new ArrayList<>(map.keySet()));
+			assertEquals(new ArrayList<>(treeMap.descendingKeySet()), new ArrayList<>(map.descendingKeySet()));
+		}
+	}
+
+	@Test
+	public void growsAndShrinksWithSortedKeys() {
+		BTreeMyMap<Integer, Integer> map = new BTreeMyMap<>(4);
+		for(int i = 0; i < 10_000; i++)
+			map.put(i, i);
+		map.checkInvariants();
+		assertTrue(map.height() <= 1 + Math.ceil(Math.log(10_000) / Math.log(2)));
+		for(int i = 0; i < 10_000; i++) {
+			assertEquals(Integer.valueOf(i), map.remove(i));
+			if(i % 500 == 0)
+				map.checkInvariants();
+		}
+		map.checkInvariants();
+		assertTrue(map.isEmpty());
+		assertEquals(0, map.height());
+	}
+
+	@Test
+	public void navigation() {
+		for(int order : ORDERS) {
+			BTreeMyMap<Integer, Integer> map = new BTreeMyMap<>(order);
+			TreeMap<Integer, Integer> treeMap = new TreeMap<>();
+			for(int i = 0; i < 1_000; i += 3) {
+				map.put(i, i);
+				treeMap.put(i, i);
+			}
+			for(int key = -2; key < 1_003; key++) {
+				assertEquals(treeMap.lowerKey(key), map.lowerKey(key));
+				assertEquals(treeMap.floorKey(key), map.floorKey(key));
+				assertEquals(treeMap.ceilingKey(key), map.ceilingKey(key));
+				assertEquals(treeMap.higherKey(key), map.higherKey(key));
+			}
+			assertEquals(treeMap.firstEntry(), map.firstEntry());
+			assertEquals(treeMap.lastEntry(), map.lastEntry());
+			assertEquals(treeMap.subMap(100, false, 400, true), map.subMap(100, false, 400, true));
+			assertEquals(new ArrayList<>(treeMap.descendingMap().subMap(700, true, 200, false).keySet()),
+					new ArrayList<>(map.descendingMap().subMap(700, true, 200, false).keySet()));
+			assertEquals(new ArrayList<>(treeMap.headMap(50).values()), new ArrayList<>(map.headMap(50).values()));
+		}
+	}
+
+	@Test
+	public void iteratorRemoveAndSetValue() {
+		BTreeMyMap<Integer, Integer> map = new BTreeMyMap<>(4);
+		for(int i = 0; i < 1_000; i++)
+			map.put(i, i);
+		for(Iterator<Map.Entry<Integer, Integer>> iterator = map.entrySet().iterator(); iterator.hasNext(); ) {
+			Map.Entry<Integer, Integer> entry = iterator.next();
+			if(entry.getKey() % 3 != 0)
+				iterator.remove();
+			else
+				entry.setValue(-entry.getKey());
+		}
+		map.checkInvariants();
+		assertEquals(334, map.size());
+		for(Map.Entry<Integer, Integer> entry : map.entrySet())
+			assertEquals(-entry.getKey(), entry.getValue().intValue());
+		map.descendingKeySet().removeIf(key -> key > 500);
+		map.checkInvariants();
+		assertEquals(Integer.valueOf(498), map.lastKey());
+	}
+
+	@Test
+	public void setValueAfterRemovalDoesNotReinsert() {
+		BTreeMyMap<Integer, String> map = new BTreeMyMap<>(4);
+		for(int i = 0; i < 10; i++)
+			map.put(i, "v" + i);
+		Iterator<Map.Entry<Integer, String>> iterator = map.entrySet().iterator();
+		Map.Entry<Integer, String> removed = iterator.next();
+		iterator.remove();
+		assertEquals("v0", removed.setValue("zombie"));
+		assertEquals("zombie", removed.getValue());
+		assertFalse(map.containsKey(0));
+		assertEquals(9, map.size());
+
+		//Entries stay usable after other keys were inserted and removed
+		Map.Entry<Integer, String> kept = iterator.next();
+		for(int i = 10; i < 100; i++)
+			map.put(i, "v" + i);
+		map.remove(5);
+		kept.setValue("changed");
+		assertEquals("changed", map.get(1));
+		map.checkInvariants();
+		assertEquals(98, map.size());
+	}
+
+	@Test(expected = ConcurrentModificationException.class)
+	public void iteratorsAreFailFast() {
+		BTreeMyMap<Integer, Integer> map = new BTreeMyMap<>();
+		map.put(1, 1);
+		map.put(2, 2);
+		Iterator<Integer> iterator = map.keySet().iterator();
+		iterator.next();
+		map.put(3, 3);
+		iterator.next();
+	}
+
+	@Test
+	public void customComparator() {
+		BTreeMyMap<String, Integer> map = new BTreeMyMap<>(String.CASE_INSENSITIVE_ORDER, 4);
+		for(String key : new String[]{"b", "A", "c", "D", "e"})
+			map.put(key, key.length());
+		assertEquals(Arrays.asList("A", "b", "c", "D", "e"), new ArrayList<>(map.keySet()));
+		assertTrue(map.containsKey("a"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void orderTooSmall() {
+		new BTreeMyMap<>(3);
+	}
+}
@@ -0,0 +1,244 @@
+package net.htlgrieskirchen.aud2.map;
+
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ConcurrentMyMapTest {
+	private static final int THREADS = 8;
+
+	@Test
+	public void matchesTreeMap() {
+		ConcurrentMyMap<Integer, String> map = new ConcurrentMyMap<>();
+		TreeMap<Integer, String> treeMap = new TreeMap<>();
+		Random random = new Random(42);
+		for(int i = 0; i < 20_000; i++) {
+			int key = random.nextInt(2_000);
+			String value = Integer.toString(i);
+			switch(random.nextInt(5)) {
+				case 0:
+					assertEquals(treeMap.remove(key), map.remove(key));
+					break;
+				case 1:
+					assertEquals(treeMap.putIfAbsent(key, value), map.putIfAbsent(key, value));
+					break;
+				case 2:
+					assertEquals(treeMap.merge(key, value, String::concat), map.merge(key, value, String::concat));
+					break;
+				case 3:
+					assertEquals(treeMap.computeIfPresent(key, (k, v) -> v.length() > 8 ? null : v + k), map.computeIfPresent(key, (k, v) -> v.length() > 8 ? null : v + k));
+					break;
+				default:
+					assertEquals(treeMap.put(key, value), map.put(key, value));
+			}
+			assertEquals(treeMap.get(key), map.get(key));
+		}
+		map.checkInvariants();
+		assertEquals(treeMap, map);
+		assertEquals(treeMap.toString(), map.toString());
+		assertEquals(treeMap.firstEntry(), map.firstEntry());
+		assertEquals(treeMap.lastKey(), map.lastKey());
+		for(int key = -1; key <= 2_001; key += 7) {
+			assertEquals(treeMap.lowerKey(key), map.lowerKey(key));
+			assertEquals(treeMap.floorKey(key), map.floorKey(key));
+			assertEquals(treeMap.ceilingKey(key), map.ceilingKey(key));
+			assertEquals(treeMap.higherKey(key), map.higherKey(key));
+		}
+	}
+
+	@Test
+	public void rangeViews() {
+		ConcurrentMyMap<Integer, Integer> map = new ConcurrentMyMap<>();
+		TreeMap<Integer, Integer> treeMap = new TreeMap<>();
+		for(int i = 0; i < 100; i += 3) {
+			map.put(i, -i);
+			treeMap.put(i, -i);
+		}
+		assertEquals(treeMap.subMap(10, true, 50, false), map.subMap(10, true, 50, false));
+		assertEquals(treeMap.subMap(9, false, 51, true).size(), map.subMap(9, false, 51, true).size());
+		assertEquals(new ArrayList<>(treeMap.descendingMap().headMap(40, true).keySet()), new ArrayList<>(map.descendingMap().headMap(40, true).keySet()));
+		assertEquals(new ArrayList<>(treeMap.descendingKeySet()), new ArrayList<>(map.descendingKeySet()));
+		assertEquals(new ArrayList<>(treeMap.tailMap(90).values()), new ArrayList<>(map.tailMap(90).values()));
+
+		ConcurrentNavigableMap<Integer, Integer> view = map.subMap(10, 20);
+		assertEquals(Integer.valueOf(1), view.merge(11, 1, Integer::sum));
+		assertEquals(Integer.valueOf(-12), view.putIfAbsent(12, 0));
+		assertEquals(Integer.valueOf(1), map.get(11));
+		try {
+			view.putIfAbsent(30, 0);
+			fail();
+		} catch(IllegalArgumentException expected) {
+		}
+	}
+
+	@Test
+	public void iteratorsAreSnapshots() {
+		ConcurrentMyMap<Integer, Integer> map = new ConcurrentMyMap<>();
+		for(int i = 0; i < 10; i++)
+			map.put(i, i);
+		Iterator<Map.Entry<Integer, Integer>> iterator = map.entrySet().iterator();
+		map.clear();
+		int count = 0;
+		while(iterator.hasNext()) {
+			assertEquals(count, iterator.next().getKey().intValue());
+			count++;
+		}
+		assertEquals(10, count);
+		assertTrue(map.isEmpty());
+	}
+
+	@Test
+	public void iteratorRemove() {
+		ConcurrentMyMap<Integer, Integer> map = new ConcurrentMyMap<>();
+		for(int i = 0; i < 10; i++)
+			map.put(i, i);
+		map.keySet().removeIf(key -> key % 2 == 0);
+		assertEquals(Arrays.asList(1, 3, 5, 7, 9), new ArrayList<>(map.keySet()));
+		assertEquals(Integer.valueOf(1), map.pollFirstEntry().getKey());
+		assertEquals(Integer.valueOf(9), map.pollLastEntry().getKey());
+		assertEquals(3, map.size());
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void nullValuesAreRejected() {
+		new ConcurrentMyMap<String, String>().put("a", null);
+	}
+
+	@Test
+	public void concurrentMergeCountsEveryIncrement() throws Exception {
+		ConcurrentMyMap<Integer, Integer> map = new ConcurrentMyMap<>();
+		int keys = 64;
+		int increments = 20_000;
+		runConcurrently(thread -> {
+			Random random = new Random(thread);
+			for(int i = 0; i < increments; i++)
+				map.merge(random.nextInt(keys), 1, Integer::sum);
+		});
+		map.checkInvariants();
+		int total = 0;
+		for(int value : map.values())
+			total += value;
+		assertEquals(THREADS * increments, total);
+	}
+
+	@Test
+	public void concurrentPutIfAbsentHasOneWinnerPerKey() throws Exception {
+		ConcurrentMyMap<Integer, Integer> map = new ConcurrentMyMap<>();
+		int keys = 10_000;
+		AtomicInteger wins = new AtomicInteger();
+		runConcurrently(thread -> {
+			for(int key = 0; key < keys; key++)
+				if(map.putIfAbsent(key, thread) == null)
+					wins.incrementAndGet();
+		});
+		map.checkInvariants();
+		assertEquals(keys, wins.get());
+		assertEquals(keys, map.size());
+	}
+
+	@Test
+	public void concurrentSubMapPollsReturnEachEntryOnce() throws Exception {
+		ConcurrentMyMap<Integer, Integer> map = new ConcurrentMyMap<>();
+		for(int key = 0; key < 20_000; key++)
+			map.put(key, key);
+		ConcurrentNavigableMap<Integer, Integer> range = map.subMap(5_000, 15_000);
+		Set<Integer> polled = ConcurrentHashMap.newKeySet();
+		AtomicInteger polls = new AtomicInteger();
+		runConcurrently(thread -> {
+			ConcurrentNavigableMap<Integer, Integer> view = thread % 2 == 0 ? range : range.descendingMap();
+			Map.Entry<Integer, Integer> entry;
+			while((entry = thread % 4 < 2 ? view.pollFirstEntry() : view.pollLastEntry()) != null) {
+				assertTrue(entry.getKey() >= 5_000 && entry.getKey() < 15_000);
+				assertTrue(polled.add(entry.getKey()));
+				polls.incrementAndGet();
+			}
+		});
+		map.checkInvariants();
+		assertEquals(10_000, polls.get());
+		assertEquals(10_000, polled.size());
+		assertTrue(range.isEmpty());
+		assertEquals(10_000, map.size());
+	}
+
+	@Test
+	public void concurrentSubMapEntryRemovalsHaveOneWinner() throws Exception {
+		ConcurrentMyMap<Integer, Integer> map = new ConcurrentMyMap<>();
+		for(int key = 0; key < 2_000; key++)
+			map.put(key, key);
+		Set<Map.Entry<Integer, Integer>> entries = map.headMap(1_000).entrySet();
+		AtomicInteger removals = new AtomicInteger();
+		runConcurrently(thread -> {
+			for(int key = 0; key < 2_000; key++)
+				if(entries.remove(new AbstractMap.SimpleEntry<>(key, key)))
+					removals.incrementAndGet();
+		});
+		map.checkInvariants();
+		assertEquals(1_000, removals.get());
+		assertEquals(1_000, map.size());
+		assertEquals(Integer.valueOf(1_000), map.firstKey());
+	}
+
+	@Test
+	public void readersSeeConsistentSnapshots() throws Exception {
+		ConcurrentMyMap<Integer, Integer> map = new ConcurrentMyMap<>();
+		AtomicBoolean done = new AtomicBoolean();
+		Thread writer = new Thread(() -> {
+			try {
+				Random random = new Random(1);
+				for(int i = 0; i < 50_000; i++) {
+					int key = random.nextInt(1_000);
+					map.compute(key, (k, v) -> v == null ? k : null);
+				}
+			} finally {
+				done.set(true);
+			}
+		});
+		writer.start();
+		runConcurrently(thread -> {
+			Random random = new Random(thread);
+			while(!done.get()) {
+				Integer previous = null;
+				for(Map.Entry<Integer, Integer> entry : map.entrySet()) {
+					assertEquals(entry.getKey(), entry.getValue());
+					assertTrue(previous == null || previous < entry.getKey());
+					previous = entry.getKey();
+				}
+				int key = random.nextInt(1_000);
+				Integer value = map.get(key);
+				assertTrue(value == null || value == key);
+			}
+		});
+		writer.join();
+		map.checkInvariants();
+	}
+
+	private interface Task {
+		void run(int thread) throws Exception;
+	}
+
+	private static void runConcurrently(Task task) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<?>> futures = new ArrayList<>();
+		for(int i = 0; i < THREADS; i++) {
+			int thread = i;
+			futures.add(executor.submit(() -> {
+				start.await();
+				task.run(thread);
+				return null;
+			}));
+		}
+		start.countDown();
+		try {
+			for(Future<?> future : futures)
+				future.get();
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
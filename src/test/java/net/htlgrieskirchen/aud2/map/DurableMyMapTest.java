@@ -0,0 +1,225 @@
+package net.htlgrieskirchen.aud2.map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class DurableMyMapTest {
+	private static final Comparator<Integer> NON_NEGATIVE = (a, b) -> {
+		if(a < 0 || b < 0)
+			throw new IllegalArgumentException("Negative key");
+		return Integer.compare(a, b);
+	};
+
+	private Path directory;
+
+	@Before
+	public void createDirectory() throws IOException {
+		directory = Files.createTempDirectory("durable");
+	}
+
+	@After
+	public void deleteDirectory() throws IOException {
+		try(Stream<Path> files = Files.list(directory)) {
+			for(Path file : (Iterable<Path>) files::iterator)
+				Files.delete(file);
+		}
+		Files.delete(directory);
+	}
+
+	private DurableMyMap<Integer, String> open(long fsyncIntervalMillis, long checkpointIntervalMillis) throws IOException {
+		return DurableMyMap.open(directory, Codec.INTEGER, Codec.STRING, fsyncIntervalMillis, checkpointIntervalMillis);
+	}
+
+	private long logSize() throws IOException {
+		return Files.size(directory.resolve(DurableMyMap.LOG));
+	}
+
+	@Test
+	public void recoversEverySyncedModificationAfterACrash() throws IOException {
+		DurableMyMap<Integer, String> map = open(0, 0);
+		TreeMap<Integer, String> expected = new TreeMap<>();
+		Random random = new Random(42);
+		for(int i = 0; i < 2_000; i++) {
+			int key = random.nextInt(300);
+			if(random.nextInt(3) == 0) {
+				assertEquals(expected.remove(key), map.remove(key));
+			} else {
+				assertEquals(expected.put(key, "v" + i), map.put(key, "v" + i));
+			}
+			if(i == 1_000) {
+				map.clear();
+				expected.clear();
+			}
+		}
+		map.crash();
+
+		map = open(0, 0);
+		assertEquals(expected, map);
+		map.close();
+	}
+
+	@Test
+	public void groupCommitLosesOnlyUnsyncedRecords() throws IOException {
+		DurableMyMap<Integer, String> map = open(3_600_000, 0);
+		map.put(1, "one");
+		map.put(2, "two");
+		assertEquals(0, logSize());
+		map.sync();
+		long synced = logSize();
+		assertTrue(synced > 0);
+		map.put(3, "three");
+		map.remove(1);
+		assertEquals(synced, logSize());
+		map.crash();
+
+		map = open(0, 0);
+		Map<Integer, String> expected = new HashMap<>();
+		expected.put(1, "one");
+		expected.put(2, "two");
+		assertEquals(expected, map);
+		map.close();
+	}
+
+	@Test
+	public void backgroundThreadSyncs() throws Exception {
+		DurableMyMap<Integer, String> map = open(10, 0);
+		map.put(1, "one");
+		for(int i = 0; i < 500 && logSize() == 0; i++)
+			Thread.sleep(10);
+		assertTrue(logSize() > 0);
+		map.crash();
+		assertEquals("one", (map = open(0, 0)).get(1));
+		map.close();
+	}
+
+	@Test
+	public void checkpointTruncatesTheLog() throws IOException {
+		DurableMyMap<Integer, String> map = open(0, 0);
+		for(int i = 0; i < 100; i++)
+			map.put(i, "v" + i);
+		assertTrue(logSize() > 0);
+		map.checkpoint();
+		assertEquals(0, logSize());
+		map.remove(5);
+		map.put(200, "new");
+		map.crash();
+
+		map = open(0, 0);
+		assertEquals(100, map.size());
+		assertNull(map.get(5));
+		assertEquals("new", map.get(200));
+		assertEquals("v99", map.get(99));
+		map.close();
+	}
+
+	@Test
+	public void backgroundCheckpoints() throws Exception {
+		DurableMyMap<Integer, String> map = open(0, 10);
+		map.put(1, "one");
+		for(int i = 0; i < 500 && !Files.exists(directory.resolve(DurableMyMap.CHECKPOINT)); i++)
+			Thread.sleep(10);
+		map.close();
+		assertTrue(Files.exists(directory.resolve(DurableMyMap.CHECKPOINT)));
+		assertEquals("one", (map = open(0, 0)).get(1));
+		map.close();
+	}
+
+	@Test
+	public void replayingOntoANewerCheckpointIsHarmless() throws IOException {
+		DurableMyMap<Integer, String> map = open(0, 0);
+		map.put(1, "one");
+		map.put(2, "two");
+		map.remove(1);
+		byte[] log = Files.readAllBytes(directory.resolve(DurableMyMap.LOG));
+		map.checkpoint();
+		map.crash();
+		//A crash after saving the checkpoint but before truncating the log
+		Files.write(directory.resolve(DurableMyMap.LOG), log);
+
+		map = open(0, 0);
+		assertEquals(Collections.singletonMap(2, "two"), map);
+		map.close();
+	}
+
+	@Test
+	public void tornRecordsAreIgnored() throws IOException {
+		DurableMyMap<Integer, String> map = open(0, 0);
+		map.put(1, "one");
+		map.put(2, "two");
+		map.crash();
+		long valid = logSize();
+		//Half of a record header, then a record with a wrong checksum
+		Files.write(directory.resolve(DurableMyMap.LOG), new byte[]{0, 0, 0, 9, 1, 2, 3, 4, 1, 0, 0, 0, 3, 0, 0, 0, 0}, StandardOpenOption.APPEND);
+
+		map = open(0, 0);
+		assertEquals(2, map.size());
+		assertEquals(valid, logSize());
+		map.put(3, "three");
+		map.crash();
+		assertEquals(3, (map = open(0, 0)).size());
+		map.close();
+	}
+
+	@Test
+	public void iteratorRemovalsAreLogged() throws IOException {
+		DurableMyMap<Integer, String> map = open(0, 0);
+		for(int i = 0; i < 10; i++)
+			map.put(i, "v" + i);
+		map.keySet().removeIf(key -> key % 2 == 0);
+		for(Map.Entry<Integer, String> entry : map.entrySet())
+			entry.setValue(entry.getValue() + "!");
+		map.crash();
+
+		map = open(0, 0);
+		assertEquals(5, map.size());
+		assertEquals("v3!", map.get(3));
+		assertFalse(map.containsKey(4));
+		map.close();
+	}
+
+	@Test
+	public void rejectedKeysAreNotLogged() throws IOException {
+		DurableMyMap<Integer, String> map = DurableMyMap.open(directory, NON_NEGATIVE, Codec.INTEGER, Codec.STRING, 0, 0);
+		map.put(1, "one");
+		try {
+			map.put(-1, "minus one");
+			fail();
+		} catch(IllegalArgumentException expected) {
+		}
+		map.crash();
+
+		map = DurableMyMap.open(directory, NON_NEGATIVE, Codec.INTEGER, Codec.STRING, 0, 0);
+		assertEquals(Collections.singletonMap(1, "one"), new HashMap<>(map));
+		map.close();
+	}
+
+	@Test
+	public void recordsThatFailToApplyEndTheLog() throws IOException {
+		DurableMyMap<Integer, String> map = open(0, 0);
+		map.put(1, "one");
+		map.put(-1, "minus one");
+		map.put(2, "two");
+		map.crash();
+
+		map = DurableMyMap.open(directory, NON_NEGATIVE, Codec.INTEGER, Codec.STRING, 0, 0);
+		assertEquals(Collections.singletonMap(1, "one"), new HashMap<>(map));
+		map.close();
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void nullValuesAreRejected() throws IOException {
+		try(DurableMyMap<Integer, String> map = open(0, 0)) {
+			map.put(1, null);
+		}
+	}
+}
@@ -0,0 +1,135 @@
+package net.htlgrieskirchen.aud2.map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class MappedMyMapTest {
+	private Path file;
+
+	@Before
+	public void createFile() throws IOException {
+		file = Files.createTempFile("mymap", ".bin");
+	}
+
+	@After
+	public void deleteFile() throws IOException {
+		Files.deleteIfExists(file);
+	}
+
+	@Test
+	public void saveAndOpen() throws IOException {
+		MyMap<Integer, String> map = new MyMap<>(true);
+		TreeMap<Integer, String> treeMap = new TreeMap<>();
+		Random random = new Random(42);
+		for(int i = 0; i < 5_000; i++) {
+			int key = random.nextInt(100_000) * 2;
+			map.put(key, "value " + i);
+			treeMap.put(key, "value " + i);
+		}
+		map.save(file, Codec.INTEGER, Codec.STRING);
+		MappedMyMap<Integer, String> mapped = MyMap.open(file, Codec.INTEGER, Codec.STRING);
+
+		assertEquals(treeMap.size(), mapped.size());
+		assertEquals(treeMap, mapped);
+		assertEquals(new ArrayList<>(treeMap.keySet()), new ArrayList<>(mapped.keySet()));
+		for(int key = -1; key < 200_002; key += 37) {
+			assertEquals(treeMap.get(key), mapped.get(key));
+			assertEquals(treeMap.containsKey(key), mapped.containsKey(key));
+			assertEquals(treeMap.lowerKey(key), mapped.lowerKey(key));
+			assertEquals(treeMap.floorKey(key), mapped.floorKey(key));
+			assertEquals(treeMap.ceilingKey(key), mapped.ceilingKey(key));
+			assertEquals(treeMap.higherKey(key), mapped.higherKey(key));
+		}
+		for(Integer key : treeMap.keySet())
+			assertEquals(treeMap.get(key), mapped.get(key));
+	}
+
+	@Test
+	public void rangeScans() throws IOException {
+		MyMap<Long, Long> map = new MyMap<>(true);
+		for(long i = 0; i < 1_000; i++)
+			map.put(i * 10, -i);
+		map.save(file, Codec.LONG, Codec.LONG);
+		MappedMyMap<Long, Long> mapped = MyMap.open(file, Codec.LONG, Codec.LONG);
+
+		NavigableMap<Long, Long> range = mapped.subMap(95L, true, 655L, false);
+		assertEquals(map.subMap(95L, true, 655L, false), range);
+		assertEquals(56, range.size());
+		assertEquals(Long.valueOf(100), range.firstKey());
+		assertEquals(new ArrayList<>(map.descendingMap().headMap(9_000L, false).keySet()),
+				new ArrayList<>(mapped.descendingMap().headMap(9_000L, false).keySet()));
+		assertEquals(new ArrayList<>(map.tailMap(9_985L).values()), new ArrayList<>(mapped.tailMap(9_985L).values()));
+	}
+
+	@Test
+	public void comparatorAndEmptyMap() throws IOException {
+		MyMap<String, Integer> map = new MyMap<>(Comparator.reverseOrder(), true);
+		map.save(file, Codec.STRING, Codec.INTEGER);
+		MappedMyMap<String, Integer> mapped = MyMap.open(file, Comparator.reverseOrder(), Codec.STRING, Codec.INTEGER);
+		assertTrue(mapped.isEmpty());
+		assertNull(mapped.get("a"));
+		assertNull(mapped.firstEntry());
+
+		for(String key : new String[]{"b", "d", "a", "c"})
+			map.put(key, (int) key.charAt(0));
+		map.save(file, Codec.STRING, Codec.INTEGER);
+		mapped = MyMap.open(file, Comparator.reverseOrder(), Codec.STRING, Codec.INTEGER);
+		assertEquals(Arrays.asList("d", "c", "b", "a"), new ArrayList<>(mapped.keySet()));
+		assertEquals(Integer.valueOf('c'), mapped.get("c"));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void mappedMapIsReadOnly() throws IOException {
+		MyMap<Integer, Integer> map = new MyMap<>();
+		map.put(1, 1);
+		map.save(file, Codec.INTEGER, Codec.INTEGER);
+		MyMap.open(file, Codec.INTEGER, Codec.INTEGER).put(2, 2);
+	}
+
+	@Test
+	public void failedSaveKeepsTheOldFile() throws IOException {
+		MyMap<Integer, String> map = new MyMap<>();
+		map.put(1, "one");
+		map.save(file, Codec.INTEGER, Codec.STRING);
+		byte[] saved = Files.readAllBytes(file);
+		map.put(2, null);
+		try {
+			map.save(file, Codec.INTEGER, Codec.STRING);
+			fail();
+		} catch(NullPointerException expected) {
+		}
+		assertArrayEquals(saved, Files.readAllBytes(file));
+		try(DirectoryStream<Path> siblings = Files.newDirectoryStream(file.getParent(), file.getFileName() + "*.tmp")) {
+			assertFalse(siblings.iterator().hasNext());
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsIndexPastTheFooter() throws IOException {
+		MyMap<Integer, Integer> map = new MyMap<>();
+		for(int i = 0; i < 1_000; i++)
+			map.put(i, i);
+		map.save(file, Codec.INTEGER, Codec.INTEGER);
+		byte[] bytes = Files.readAllBytes(file);
+		//Claims more entries, and so more blocks, than the index holds
+		ByteBuffer.wrap(bytes).putInt(bytes.length - 12, 100_000);
+		Files.write(file, bytes);
+		MyMap.open(file, Codec.INTEGER, Codec.INTEGER);
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsOtherFiles() throws IOException {
+		Files.write(file, "not a map file at all".getBytes());
+		MyMap.open(file, Codec.INTEGER, Codec.INTEGER);
+	}
+}
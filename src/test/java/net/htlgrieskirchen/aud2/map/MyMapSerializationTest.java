@@ -0,0 +1,85 @@
+package net.htlgrieskirchen.aud2.map;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class MyMapSerializationTest {
+	@SuppressWarnings("unchecked")
+	private static <T> T roundTrip(T object) throws IOException, ClassNotFoundException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try(ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(object);
+		}
+		try(ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+			return (T) in.readObject();
+		}
+	}
+
+	@Test
+	public void roundTripKeepsEntriesAndMode() throws Exception {
+		MyMap<String, Integer> map = new MyMap<>(true);
+		Random random = new Random(42);
+		for(int i = 0; i < 1_000; i++)
+			map.put(Integer.toString(random.nextInt(5_000)), i);
+		map.put("null value", null);
+
+		MyMap<String, Integer> copy = roundTrip(map);
+		copy.checkInvariants();
+		assertEquals(map, copy);
+		assertEquals(new ArrayList<>(map.keySet()), new ArrayList<>(copy.keySet()));
+		assertTrue(copy.containsKey("null value"));
+		copy.put("new", 1);
+		assertEquals(map.size() + 1, copy.size());
+		assertFalse(map.containsKey("new"));
+	}
+
+	@Test
+	public void degenerateTreeIsRebuiltBalanced() throws Exception {
+		MyMap<Integer, Integer> map = new MyMap<>();
+		int size = 10_000;
+		for(int i = 0; i < size; i++)
+			map.put(i, i);
+		assertEquals(size, map.height());
+
+		MyMap<Integer, Integer> copy = roundTrip(map);
+		copy.checkInvariants();
+		assertEquals(map, copy);
+		assertTrue(copy.height() <= 1 + 32 - Integer.numberOfLeadingZeros(size));
+	}
+
+	@Test
+	public void comparatorIsKept() throws Exception {
+		MyMap<String, String> map = new MyMap<>(Collections.reverseOrder(), true);
+		for(String key : new String[]{"a", "c", "b"})
+			map.put(key, key);
+		MyMap<String, String> copy = roundTrip(map);
+		assertEquals(Arrays.asList("c", "b", "a"), new ArrayList<>(copy.keySet()));
+		copy.put("d", "d");
+		assertEquals("d", copy.firstKey());
+	}
+
+	@Test
+	public void valueIndexIsRebuilt() throws Exception {
+		MyMap<Integer, String> map = new MyMap<>(null, true, true);
+		for(int i = 0; i < 100; i++)
+			map.put(i, Integer.toString(i % 7));
+		MyMap<Integer, String> copy = roundTrip(map);
+		copy.checkInvariants();
+		assertEquals(map.keysForValue("3"), copy.keysForValue("3"));
+		copy.values().remove("3");
+		assertFalse(copy.containsValue("3"));
+		copy.checkInvariants();
+	}
+
+	@Test
+	public void emptyMap() throws Exception {
+		MyMap<String, String> copy = roundTrip(new MyMap<String, String>());
+		assertTrue(copy.isEmpty());
+		copy.put("a", "b");
+		assertEquals(1, copy.entrySet().size());
+	}
+}
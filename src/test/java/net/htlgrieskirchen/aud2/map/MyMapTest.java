@@ -2,24 +2,49 @@ package net.htlgrieskirchen.aud2.map;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
 
 import java.util.AbstractMap.SimpleEntry;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
+@RunWith(Parameterized.class)
 public class MyMapTest {
 	public static String[] someString = {"404", "Internet", "Not", "Found", "Hallo", "", "Holland", "null", "Sweden", "Kalk", "perfect"};
+	private final Supplier<Map<String, String>> myMapFactory;
 	private Map<String, String> myMap;
 	private Map<String, String> treeMap;
 
+	public MyMapTest(String name, Supplier<Map<String, String>> myMapFactory) {
+		this.myMapFactory = myMapFactory;
+	}
+
+	@Parameters(name = "{0}")
+	public static Collection<Object[]> maps() {
+		return Arrays.asList(new Object[][]{
+				{"unbalanced", (Supplier<Map<String, String>>) MyMap::new},
+				{"balanced", (Supplier<Map<String, String>>) () -> new MyMap<>(true)},
+				{"comparator", (Supplier<Map<String, String>>) () -> new MyMap<>(String::compareTo, true)},
+				{"value index", (Supplier<Map<String, String>>) () -> new MyMap<>(null, false, true)}
+		});
+	}
+
 	@Before
 	public void prepareMaps() {
-		myMap = new MyMap<>();
+		myMap = myMapFactory.get();
 		treeMap = new TreeMap<>();
 	}
 
@@ -64,6 +89,13 @@ public class MyMapTest {
 		assertEquals(treeMapResult, myMapResult);
 	}
 
+	/**
+	 * Like {@link #assertEqualResult(Function)}, for the methods of {@link NavigableMap}.
+	 */
+	public void assertEqualNavigation(Function<NavigableMap<String, String>, ?> function) {
+		assertEqualResult(map -> function.apply((NavigableMap<String, String>) map));
+	}
+
 	private void fillWithSomeStrings() {
 		for(final AtomicInteger i = new AtomicInteger(0); i.get() < 10; i.incrementAndGet())
 			execute(map -> map.put(someString[i.get()], someString[i.get() + 1]));
@@ -123,6 +155,16 @@ public class MyMapTest {
 		assertEqualResult(Map::size);
 	}
 
+	@Test
+	public void sizeAfterRemove() {
+		fillWithSomeStrings();
+		execute(map -> map.remove(someString[3]));
+		execute(map -> map.remove(someString[0]));
+		assertEqualResult(Map::size);
+		execute(map -> map.remove("not a key"));
+		assertEqualResult(Map::size);
+	}
+
 	@Test
 	public void getEmpty() {
 		assertEqualResult(map -> map.get(someString[0]));
@@ -202,7 +244,7 @@ public class MyMapTest {
 
 	@Test
 	public void putAllMultiple() {
-		Map<String, String> myMap2 = new MyMap<>();
+		Map<String, String> myMap2 = myMapFactory.get();
 		Map<String, String> treeMap2 = new TreeMap<>();
 
 		myMap2.put(someString[0], someString[1]);
@@ -241,6 +283,26 @@ public class MyMapTest {
 		assertEquals(treeMap, myMap);
 	}
 
+	@Test
+	public void removeNullValueThroughKeySet() {
+		fillWithSomeStrings();
+		execute(map -> map.put(someString[5], null));
+		assertEqualResult(map -> map.keySet().remove(someString[5]));
+		assertEqualResult(map -> map.keySet().remove(someString[5]));
+		assertEquals(treeMap, myMap);
+	}
+
+	@Test
+	public void removeKeyValue() {
+		fillWithSomeStrings();
+		execute(map -> map.put(someString[5], null));
+		assertEqualResult(map -> map.remove(someString[0], someString[2]));
+		assertEqualResult(map -> map.remove(someString[0], someString[1]));
+		assertEqualResult(map -> map.remove(someString[5], null));
+		assertEqualResult(map -> map.remove("not a key", null));
+		assertEquals(treeMap, myMap);
+	}
+
 	@Test
 	public void removeMultipleCombinations() {
 		for(final AtomicInteger i = new AtomicInteger(0); i.get() < 10; i.incrementAndGet()) {
@@ -332,6 +394,87 @@ public class MyMapTest {
 		assertEqualResult(map -> map.values().iterator().hasNext());
 	}
 
+	@Test
+	public void iteratorsAreSorted() {
+		fillWithSomeStrings();
+		assertEqualResult(map -> new ArrayList<>(map.keySet()));
+		assertEqualResult(map -> new ArrayList<>(map.values()));
+		assertEqualResult(map -> new ArrayList<>(map.entrySet()));
+	}
+
+	@Test
+	public void keySetIteratorRemove() {
+		fillWithSomeStrings();
+		execute(map -> {
+			Iterator<String> iterator = map.keySet().iterator();
+			while(iterator.hasNext()) {
+				if(iterator.next().length() > 4)
+					iterator.remove();
+			}
+		});
+		assertEquals(treeMap, myMap);
+		assertEqualResult(map -> new ArrayList<>(map.keySet()));
+	}
+
+	@Test
+	public void entrySetIteratorRemoveAll() {
+		fillWithSomeStrings();
+		executeAndCompare(map -> {
+			Iterator<Map.Entry<String, String>> iterator = map.entrySet().iterator();
+			while(iterator.hasNext()) {
+				iterator.next();
+				iterator.remove();
+			}
+		});
+		assertEqualResult(Map::isEmpty);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void iteratorRemoveTwice() {
+		fillWithSomeStrings();
+		Iterator<String> iterator = myMap.keySet().iterator();
+		iterator.next();
+		iterator.remove();
+		iterator.remove();
+	}
+
+	@Test(expected = ConcurrentModificationException.class)
+	public void iteratorFailsFastOnPut() {
+		fillWithSomeStrings();
+		Iterator<String> iterator = myMap.keySet().iterator();
+		iterator.next();
+		myMap.put("new key", "value");
+		iterator.next();
+	}
+
+	@Test(expected = ConcurrentModificationException.class)
+	public void iteratorFailsFastOnRemove() {
+		fillWithSomeStrings();
+		Iterator<String> iterator = myMap.values().iterator();
+		iterator.next();
+		myMap.remove(someString[3]);
+		iterator.next();
+	}
+
+	@Test
+	public void iteratorIgnoresValueUpdates() {
+		fillWithSomeStrings();
+		execute(map -> {
+			Iterator<String> iterator = map.keySet().iterator();
+			while(iterator.hasNext())
+				map.put(iterator.next(), "updated");
+		});
+		assertEquals(treeMap, myMap);
+	}
+
+	@Test
+	public void keySetToArray() {
+		fillWithSomeStrings();
+		assertEqualResult(map -> Arrays.asList(map.keySet().toArray()));
+		assertEqualResult(map -> Arrays.asList(map.keySet().toArray(new String[0])));
+		assertEqualResult(map -> Arrays.asList(map.keySet().toArray(new String[20])));
+	}
+
 	//TODO: Test methods of values
 
 
@@ -388,4 +531,468 @@ public class MyMapTest {
 		assertArrayEquals(treeArray, myArray);
 		assertArrayEquals(myArray, treeArray);
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void randomPutRemoveKeepsInvariants() {
+		Random random = new Random(42);
+		for(int i = 0; i < 2000; i++) {
+			String key = Integer.toString(random.nextInt(500));
+			if(random.nextInt(3) == 0)
+				assertEqualResult(map -> map.remove(key));
+			else
+				assertEqualResult(map -> map.put(key, key));
+			((MyMap<String, String>) myMap).checkInvariants();
+		}
+		assertEquals(treeMap, myMap);
+	}
+
+	@Test
+	public void sortedInsertsKeepInvariants() {
+		for(int i = 0; i < 1000; i++) {
+			String key = String.format("%04d", i);
+			execute(map -> map.put(key, key));
+		}
+		((MyMap<String, String>) myMap).checkInvariants();
+		assertEquals(treeMap, myMap);
+	}
+
+	private static final String[] probes = {"", "0", "404", "A", "Ha", "Hallo", "Hz", "Not", "Z", "null", "zzz"};
+
+	@Test
+	public void navigationQueries() {
+		fillWithSomeStrings();
+		assertEqualNavigation(NavigableMap::firstKey);
+		assertEqualNavigation(NavigableMap::lastKey);
+		assertEqualNavigation(NavigableMap::firstEntry);
+		assertEqualNavigation(NavigableMap::lastEntry);
+		for(String probe : probes) {
+			assertEqualNavigation(map -> map.lowerEntry(probe));
+			assertEqualNavigation(map -> map.lowerKey(probe));
+			assertEqualNavigation(map -> map.floorEntry(probe));
+			assertEqualNavigation(map -> map.floorKey(probe));
+			assertEqualNavigation(map -> map.ceilingEntry(probe));
+			assertEqualNavigation(map -> map.ceilingKey(probe));
+			assertEqualNavigation(map -> map.higherEntry(probe));
+			assertEqualNavigation(map -> map.higherKey(probe));
+		}
+	}
+
+	@Test
+	public void navigationEmpty() {
+		assertEqualNavigation(NavigableMap::firstEntry);
+		assertEqualNavigation(NavigableMap::pollLastEntry);
+		assertEqualNavigation(map -> map.ceilingKey("A"));
+	}
+
+	@Test(expected = NoSuchElementException.class)
+	public void firstKeyEmpty() {
+		((NavigableMap<String, String>) myMap).firstKey();
+	}
+
+	@Test
+	public void pollFirstAndLast() {
+		fillWithSomeStrings();
+		assertEqualNavigation(NavigableMap::pollFirstEntry);
+		assertEqualNavigation(NavigableMap::pollLastEntry);
+		assertEqualNavigation(NavigableMap::pollFirstEntry);
+		assertEquals(treeMap, myMap);
+		((MyMap<String, String>) myMap).checkInvariants();
+	}
+
+	@Test
+	public void rangeViews() {
+		fillWithSomeStrings();
+		for(String from : probes) {
+			for(String to : probes) {
+				if(from.compareTo(to) > 0) continue;
+				for(int inclusive = 0; inclusive < 4; inclusive++) {
+					boolean fromInclusive = (inclusive & 1) != 0;
+					boolean toInclusive = (inclusive & 2) != 0;
+					assertEqualNavigation(map -> new ArrayList<>(map.subMap(from, fromInclusive, to, toInclusive).entrySet()));
+					assertEqualNavigation(map -> new ArrayList<>(map.subMap(from, fromInclusive, to, toInclusive).descendingMap().keySet()));
+					assertEqualNavigation(map -> map.subMap(from, fromInclusive, to, toInclusive).size());
+				}
+			}
+			assertEqualNavigation(map -> new ArrayList<>(map.headMap(from).entrySet()));
+			assertEqualNavigation(map -> new ArrayList<>(map.headMap(from, true).values()));
+			assertEqualNavigation(map -> new ArrayList<>(map.tailMap(from).entrySet()));
+			assertEqualNavigation(map -> new ArrayList<>(map.tailMap(from, false).descendingMap().entrySet()));
+		}
+	}
+
+	@Test
+	public void navigationInsideViews() {
+		fillWithSomeStrings();
+		for(String probe : probes) {
+			assertEqualNavigation(map -> map.subMap("A", true, "Z", false).ceilingKey(probe));
+			assertEqualNavigation(map -> map.subMap("A", true, "Z", false).lowerEntry(probe));
+			assertEqualNavigation(map -> map.tailMap("Hallo", false).descendingMap().higherKey(probe));
+			assertEqualNavigation(map -> map.headMap("Not", true).descendingMap().floorEntry(probe));
+			assertEqualNavigation(map -> map.descendingMap().headMap("Hallo").containsKey(probe));
+		}
+		assertEqualNavigation(map -> map.subMap("A", "Z").firstKey());
+		assertEqualNavigation(map -> map.descendingMap().subMap("Z", "A").firstKey());
+		assertEqualNavigation(map -> new ArrayList<>(map.descendingMap().subMap("Z", true, "Hallo", true).entrySet()));
+		assertEqualNavigation(map -> new ArrayList<>(map.tailMap("A", true).headMap("Not", false).tailMap("Hallo", false).keySet()));
+	}
+
+	@Test
+	public void rangeViewsAreLive() {
+		fillWithSomeStrings();
+		execute(map -> {
+			NavigableMap<String, String> view = ((NavigableMap<String, String>) map).subMap("A", true, "N", false);
+			view.put("Berlin", "city");
+			map.put("Linz", "city");
+			view.remove("Hallo");
+			view.pollLastEntry();
+			Iterator<String> iterator = view.keySet().iterator();
+			iterator.next();
+			iterator.remove();
+		});
+		assertEquals(treeMap, myMap);
+		((MyMap<String, String>) myMap).checkInvariants();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rangeViewRejectsKeysOutOfRange() {
+		((NavigableMap<String, String>) myMap).headMap("N").put("Z", "out of range");
+	}
+
+	@Test
+	public void navigableKeySets() {
+		fillWithSomeStrings();
+		assertEqualNavigation(map -> new ArrayList<>(map.navigableKeySet()));
+		assertEqualNavigation(map -> new ArrayList<>(map.descendingKeySet()));
+		assertEqualNavigation(map -> new ArrayList<>(map.navigableKeySet().subSet("A", "Z")));
+		assertEqualNavigation(map -> map.descendingKeySet().ceiling("Ha"));
+		assertEqualNavigation(map -> map.navigableKeySet().pollFirst());
+		assertEquals(treeMap, myMap);
+	}
+
+	@Test
+	public void orderStatistics() {
+		fillWithSomeStrings();
+		MyMap<String, String> map = (MyMap<String, String>) myMap;
+		TreeMap<String, String> treeMap = (TreeMap<String, String>) this.treeMap;
+		List<String> keys = new ArrayList<>(treeMap.keySet());
+		for(int i = 0; i < keys.size(); i++) {
+			assertEquals(keys.get(i), map.select(i));
+			assertEquals(i, map.rank(keys.get(i)));
+		}
+		for(String probe : probes) {
+			assertEquals(treeMap.headMap(probe).size(), map.rank(probe));
+			for(String to : probes) {
+				if(probe.compareTo(to) > 0) continue;
+				assertEquals(treeMap.subMap(probe, to).size(), map.countInRange(probe, to));
+				assertEquals(treeMap.subMap(probe, false, to, true).size(), map.countInRange(probe, false, to, true));
+			}
+		}
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void selectOutOfRange() {
+		fillWithSomeStrings();
+		((MyMap<String, String>) myMap).select(myMap.size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void countInRangeReversedBounds() {
+		((MyMap<String, String>) myMap).countInRange("Z", "A");
+	}
+
+	@Test
+	public void internalIteration() {
+		fillWithSomeStrings();
+		MyMap<String, String> map = (MyMap<String, String>) myMap;
+		List<String> visited = new ArrayList<>();
+		map.forEach((key, value) -> visited.add(key + "=" + value));
+		List<String> expected = new ArrayList<>();
+		treeMap.forEach((key, value) -> expected.add(key + "=" + value));
+		assertEquals(expected, visited);
+		for(String from : probes) {
+			for(String to : probes) {
+				if(from.compareTo(to) > 0) continue;
+				List<String> keys = new ArrayList<>();
+				map.forEachInRange(from, to, (key, value) -> keys.add(key));
+				assertEquals(new ArrayList<>(((TreeMap<String, String>) treeMap).subMap(from, to).keySet()), keys);
+				keys.clear();
+				map.forEachInRange(from, false, to, true, (key, value) -> keys.add(key));
+				assertEquals(new ArrayList<>(((TreeMap<String, String>) treeMap).subMap(from, false, to, true).keySet()), keys);
+			}
+		}
+		executeAndCompare(m -> m.replaceAll((key, value) -> key + value));
+		map.checkInvariants();
+	}
+
+	@Test(expected = ConcurrentModificationException.class)
+	public void forEachDetectsStructuralModification() {
+		fillWithSomeStrings();
+		myMap.forEach((key, value) -> myMap.remove(key));
+	}
+
+	@Test
+	public void valuesByKey() {
+		Random random = new Random(42);
+		for(int i = 0; i < 2_000; i++) {
+			String key = Integer.toString(random.nextInt(500));
+			String value = random.nextInt(10) == 0 ? null : Integer.toString(random.nextInt(20));
+			switch(random.nextInt(4)) {
+				case 0:
+					execute(map -> map.remove(key));
+					break;
+				case 1:
+					execute(map -> map.values().removeAll(Collections.singleton(value)));
+					break;
+				default:
+					execute(map -> map.put(key, value));
+			}
+		}
+		assertEquals(treeMap, myMap);
+		MyMap<String, String> map = (MyMap<String, String>) myMap;
+		map.checkInvariants();
+		for(int i = 0; i < 20; i++) {
+			String value = Integer.toString(i);
+			List<String> keys = new ArrayList<>();
+			treeMap.forEach((key, entryValue) -> {
+				if(value.equals(entryValue))
+					keys.add(key);
+			});
+			assertEquals(keys, map.keysForValue(value));
+			assertEquals(!keys.isEmpty(), map.containsValue(value));
+		}
+		executeAndCompare(m -> m.values().retainAll(Arrays.asList("1", "2", "3", null)));
+		executeAndCompare(m -> m.entrySet().forEach(entry -> entry.setValue("x" + entry.getValue())));
+		map.checkInvariants();
+		assertFalse(map.containsValue("1"));
+		assertEquals(map.size(), map.keysForValue("x1").size() + map.keysForValue("x2").size()
+				+ map.keysForValue("x3").size() + map.keysForValue("xnull").size());
+	}
+
+	@Test
+	public void removeNullValues() {
+		execute(map -> map.put("a", null));
+		execute(map -> map.put("b", "b"));
+		execute(map -> map.put("c", null));
+		assertTrue(myMap.values().remove(null));
+		assertEquals(Collections.singletonMap("b", "b"), myMap);
+		assertFalse(myMap.containsValue(null));
+		assertFalse(myMap.values().remove(null));
+	}
+
+	private void fillWithNumbers(int count) {
+		Random random = new Random(42);
+		for(int i = 0; i < count; i++) {
+			String key = Integer.toString(random.nextInt(count * 2));
+			String value = Integer.toString(random.nextInt(10));
+			execute(map -> map.put(key, value));
+		}
+	}
+
+	@Test
+	public void setValueOfRemovedEntries() {
+		fillWithNumbers(100);
+		MyMap<String, String> map = (MyMap<String, String>) myMap;
+		Iterator<Map.Entry<String, String>> iterator = map.entrySet().iterator();
+		Map.Entry<String, String> removed = iterator.next();
+		iterator.remove();
+		execute(m -> m.remove(removed.getKey()));
+		Map.Entry<String, String> filtered = map.entrySet().iterator().next();
+		map.removeIf(entry -> entry == filtered);
+		execute(m -> m.remove(filtered.getKey()));
+		removed.setValue("zzz");
+		filtered.setValue("zzz");
+		assertFalse(map.containsValue("zzz"));
+		assertTrue(map.keysForValue("zzz").isEmpty());
+		assertEquals(new HashMap<>(map).hashCode(), map.hashCode());
+		assertEquals(treeMap.hashCode(), map.hashCode());
+		map.checkInvariants();
+
+		Map.Entry<String, String> cleared = map.entrySet().iterator().next();
+		map.clear();
+		cleared.setValue("zzz");
+		assertFalse(map.containsValue("zzz"));
+		assertEquals(0, map.hashCode());
+		map.checkInvariants();
+	}
+
+	@Test
+	public void bulkRemoval() {
+		fillWithNumbers(2_000);
+		MyMap<String, String> map = (MyMap<String, String>) myMap;
+		executeAndCompare(m -> m.keySet().removeIf(key -> key.endsWith("7")));
+		map.checkInvariants();
+		executeAndCompare(m -> m.keySet().removeAll(Arrays.asList("1", "2", "3", "14", "not a key")));
+		executeAndCompare(m -> m.keySet().removeAll(new HashSet<>(m.keySet()).stream().filter(key -> key.length() == 3).collect(Collectors.toList())));
+		map.checkInvariants();
+		executeAndCompare(m -> m.values().removeAll(Arrays.asList("0", "9")));
+		executeAndCompare(m -> m.values().removeIf("5"::equals));
+		map.checkInvariants();
+		executeAndCompare(m -> m.keySet().retainAll(treeMap.keySet().stream().filter(key -> key.compareTo("2") < 0).collect(Collectors.toSet())));
+		executeAndCompare(m -> m.values().retainAll(Arrays.asList("1", "2", "3", "4")));
+		map.checkInvariants();
+		assertFalse(map.removeIf(entry -> false));
+		executeAndCompare(m -> m.entrySet().retainAll(treeMap.entrySet().stream().filter(entry -> !entry.getValue().equals("4")).collect(Collectors.toList())));
+		map.checkInvariants();
+		executeAndCompare(m -> m.keySet().retainAll(Collections.emptySet()));
+		assertTrue(myMap.isEmpty());
+	}
+
+	@Test
+	public void entrySetRemoveAllMatchesValues() {
+		fillWithSomeStrings();
+		List<Map.Entry<String, String>> entries = Arrays.asList(
+				new SimpleEntry<>(someString[0], someString[1]),
+				new SimpleEntry<>(someString[2], "not the value"));
+		assertEqualResult(map -> map.entrySet().removeAll(entries));
+		assertEquals(treeMap, myMap);
+		assertTrue(myMap.containsKey(someString[2]));
+		assertEqualResult(map -> map.entrySet().removeAll(new ArrayList<>(map.entrySet())));
+		assertTrue(myMap.isEmpty());
+	}
+
+	@Test(expected = ConcurrentModificationException.class)
+	public void removeIfDetectsModificationByTheFilter() {
+		fillWithSomeStrings();
+		((MyMap<String, String>) myMap).removeIf(entry -> myMap.remove(entry.getKey()) != null);
+	}
+
+	@Test
+	public void hashCodeFollowsModifications() {
+		fillWithNumbers(1_000);
+		MyMap<String, String> map = (MyMap<String, String>) myMap;
+		assertEqualResult(Map::hashCode);
+		execute(m -> m.put("new", null));
+		execute(m -> m.remove("14"));
+		execute(m -> m.entrySet().iterator().next().setValue("changed"));
+		execute(m -> m.replaceAll((key, value) -> value + key.length()));
+		assertEqualResult(Map::hashCode);
+		execute(m -> m.keySet().removeIf(key -> key.startsWith("1")));
+		execute(m -> ((NavigableMap<String, String>) m).pollFirstEntry());
+		assertEqualResult(Map::hashCode);
+		map.checkInvariants();
+		execute(Map::clear);
+		assertEqualResult(Map::hashCode);
+		execute(m -> m.putAll(Collections.singletonMap("a", "b")));
+		assertEqualResult(Map::hashCode);
+	}
+
+	@Test
+	public void equalsOtherMaps() {
+		fillWithNumbers(300);
+		assertEquals(new HashMap<>(treeMap), myMap);
+		assertEquals(myMap, new HashMap<>(treeMap));
+		TreeMap<String, String> reversed = new TreeMap<>(Collections.reverseOrder());
+		reversed.putAll(treeMap);
+		assertEquals(reversed, myMap);
+		assertEquals(myMap, reversed);
+		MyMap<String, String> copy = new MyMap<>(true);
+		copy.putAll(treeMap);
+		assertEquals(copy, myMap);
+		assertEquals(myMap, copy);
+
+		String key = treeMap.keySet().iterator().next();
+		for(Map<String, String> other : Arrays.asList(reversed, copy, new HashMap<>(treeMap), new TreeMap<>(treeMap))) {
+			other.put(key, "different");
+			assertFalse(myMap.equals(other));
+			other.remove(key);
+			other.put("a key that is not in the map", treeMap.get(key));
+			assertFalse(myMap.equals(other));
+		}
+		Map<Integer, String> integers = new TreeMap<>();
+		for(int i = 0; i < myMap.size(); i++)
+			integers.put(i, "0");
+		assertFalse(myMap.equals(integers));
+		assertFalse(myMap.equals(new HashMap<>(integers)));
+	}
+
+	@Test
+	public void parallelStreams() {
+		fillWithNumbers(5_000);
+		assertEquals(new ArrayList<>(treeMap.keySet()), myMap.keySet().parallelStream().collect(Collectors.toList()));
+		assertEquals(new ArrayList<>(treeMap.values()), myMap.values().parallelStream().collect(Collectors.toList()));
+		assertEquals(new ArrayList<>(treeMap.entrySet()), myMap.entrySet().parallelStream().collect(Collectors.toList()));
+		assertEquals(treeMap.keySet().stream().filter(key -> key.length() == 3).count(),
+				myMap.keySet().parallelStream().filter(key -> key.length() == 3).count());
+		assertEquals(treeMap.values().stream().mapToInt(Integer::parseInt).sum(),
+				myMap.values().parallelStream().mapToInt(Integer::parseInt).sum());
+	}
+
+	@Test
+	public void spliteratorsSplitExactly() {
+		fillWithNumbers(1_000);
+		Spliterator<String> keys = myMap.keySet().spliterator();
+		assertTrue(keys.hasCharacteristics(Spliterator.SORTED | Spliterator.DISTINCT | Spliterator.SIZED | Spliterator.SUBSIZED));
+		assertEquals(((MyMap<String, String>) myMap).comparator(), keys.getComparator());
+		assertTrue(myMap.entrySet().spliterator().hasCharacteristics(Spliterator.SORTED | Spliterator.SUBSIZED));
+		assertFalse(myMap.values().spliterator().hasCharacteristics(Spliterator.SORTED));
+
+		assertTrue(keys.tryAdvance(key -> assertEquals(((TreeMap<String, String>) treeMap).firstKey(), key)));
+		long size = keys.estimateSize();
+		assertEquals(myMap.size() - 1, size);
+		Spliterator<String> prefix = keys.trySplit();
+		assertEquals(size, prefix.estimateSize() + keys.estimateSize());
+		List<String> visited = new ArrayList<>();
+		visited.add(((TreeMap<String, String>) treeMap).firstKey());
+		Spliterator<String> quarter = prefix.trySplit();
+		quarter.forEachRemaining(visited::add);
+		prefix.forEachRemaining(visited::add);
+		assertTrue(keys.tryAdvance(visited::add));
+		keys.forEachRemaining(visited::add);
+		assertEquals(new ArrayList<>(treeMap.keySet()), visited);
+		assertFalse(keys.tryAdvance(key -> {
+		}));
+	}
+
+	@Test(expected = ConcurrentModificationException.class)
+	public void spliteratorIsFailFast() {
+		fillWithSomeStrings();
+		Spliterator<String> keys = myMap.keySet().spliterator();
+		keys.tryAdvance(key -> {
+		});
+		myMap.remove(someString[0]);
+		keys.tryAdvance(key -> {
+		});
+	}
+
+	@Test
+	public void parallelBulkOperations() {
+		fillWithNumbers(5_000);
+		MyMap<String, String> map = (MyMap<String, String>) myMap;
+		StringBuilder inOrder = new StringBuilder();
+		treeMap.values().forEach(inOrder::append);
+		for(long threshold : new long[]{1, 100, Long.MAX_VALUE}) {
+			Map<String, String> visited = new ConcurrentHashMap<>();
+			map.forEach(threshold, visited::put);
+			assertEquals(treeMap, visited);
+			assertEquals(inOrder.toString(), map.reduceValues(threshold, value -> value, String::concat));
+			assertEquals(Integer.valueOf(treeMap.values().stream().mapToInt(Integer::parseInt).sum()),
+					map.reduceValues(threshold, Integer::valueOf, Integer::sum));
+			assertNull(map.reduceValues(threshold, value -> null, String::concat));
+			String last = ((TreeMap<String, String>) treeMap).lastKey();
+			assertEquals(last, map.search(threshold, (key, value) -> key.equals(last) ? key : null));
+			assertNull(map.search(threshold, (key, value) -> null));
+		}
+		myMap.clear();
+		assertNull(map.search(1, (key, value) -> key));
+	}
+
+	@Test
+	public void putAllIntoEmptyBuildsBalancedTree() {
+		Map<String, String> sorted = new TreeMap<>();
+		Map<String, String> hashed = new HashMap<>();
+		for(int i = 0; i < 1000; i++) {
+			sorted.put(String.format("%04d", i), Integer.toString(i));
+			hashed.put(Integer.toString(i * 7919), Integer.toString(i));
+		}
+		executeAndCompare(map -> map.putAll(sorted));
+		MyMap<String, String> map = (MyMap<String, String>) myMap;
+		map.checkInvariants();
+		assertTrue(map.height() <= 10);
+
+		prepareMaps();
+		executeAndCompare(map2 -> map2.putAll(hashed));
+		((MyMap<String, String>) myMap).checkInvariants();
+		executeAndCompare(map2 -> map2.putAll(sorted));
+		((MyMap<String, String>) myMap).checkInvariants();
+	}
+}
@@ -0,0 +1,135 @@
+package net.htlgrieskirchen.aud2.map;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that build their own maps to check the shape of the tree, so they
+ * run once instead of once per map in {@link MyMapTest}.
+ */
+public class MyMapTreeTest {
+	@Test
+	public void balancedHeightOnSequentialKeys() {
+		assertBalancedAfterSequentialPuts(1 << 20);
+	}
+
+	@Test
+	@Category(SlowTests.class)
+	public void balancedHeightOnTenMillionSequentialKeys() {
+		assertBalancedAfterSequentialPuts(10_000_000);
+	}
+
+	private static void assertBalancedAfterSequentialPuts(int size) {
+		MyMap<Integer, Integer> map = new MyMap<>(true);
+		for(int i = 0; i < size; i++)
+			map.put(i, i);
+		map.checkInvariants();
+		//AVL trees are at most ~1.44 times as high as a perfectly balanced tree
+		assertTrue(map.height() <= 1.4405 * Math.log(size + 2) / Math.log(2));
+	}
+
+	@Test
+	public void degenerateTreeDoesNotOverflowStack() {
+		MyMap<Integer, Integer> map = new MyMap<>();
+		int size = 10_000;
+		for(int i = 0; i < size; i++)
+			map.put(i, i);
+		assertEquals(size, map.height());
+		assertEquals(Integer.valueOf(size - 1), map.get(size - 1));
+		assertTrue(map.containsKey(size - 1));
+		assertTrue(map.containsValue(size - 1));
+		assertEquals(Integer.valueOf(size - 1), map.put(size - 1, -1));
+		assertEquals(Integer.valueOf(-1), map.remove(size - 1));
+		assertEquals(size - 1, map.size());
+	}
+
+	@Test
+	public void balancedRemoveHalfOfSequentialKeys() {
+		MyMap<Integer, Integer> map = new MyMap<>(true);
+		int size = 1 << 18;
+		for(int i = 0; i < size; i++)
+			map.put(i, i);
+		for(int i = 0; i < size; i += 2)
+			assertEquals(Integer.valueOf(i), map.remove(i));
+		map.checkInvariants();
+		assertEquals(size / 2, map.size());
+		assertTrue(map.height() <= 1.4405 * Math.log(size / 2 + 2) / Math.log(2));
+	}
+
+	@Test
+	public void putAllMergesKeysThatCompareEqual() {
+		Map<String, String> source = new LinkedHashMap<>();
+		source.put("b", "1");
+		source.put("A", "2");
+		source.put("a", "3");
+		source.put("B", "4");
+		MyMap<String, String> map = new MyMap<>(String.CASE_INSENSITIVE_ORDER);
+		TreeMap<String, String> treeMap = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+		map.putAll(source);
+		treeMap.putAll(source);
+		map.checkInvariants();
+		assertEquals(new ArrayList<>(treeMap.entrySet()), new ArrayList<>(map.entrySet()));
+	}
+
+	@Test
+	public void equalsComparesEntriesEvenIfAValueChangedItsHash() {
+		MyMap<String, List<Integer>> map = new MyMap<>();
+		MyMap<String, List<Integer>> other = new MyMap<>();
+		List<Integer> value = new ArrayList<>();
+		map.put("a", value);
+		value.add(1);
+		other.put("a", Collections.singletonList(1));
+		assertEquals(other, map);
+		assertEquals(map, other);
+	}
+
+	@Test
+	public void fromSorted() {
+		int size = 100_000;
+		TreeMap<Integer, Integer> source = new TreeMap<>();
+		for(int i = 0; i < size; i++)
+			source.put(i * 3, i);
+		MyMap<Integer, Integer> map = MyMap.fromSorted(source.entrySet().iterator(), size);
+		map.checkInvariants();
+		assertEquals(source, map);
+		assertEquals(17, map.height());
+		map.put(-1, -1);
+		map.remove(0);
+		map.checkInvariants();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void fromSortedRejectsUnsortedInput() {
+		Map<String, String> source = new LinkedHashMap<>();
+		source.put("b", "1");
+		source.put("a", "2");
+		MyMap.fromSorted(source.entrySet().iterator(), source.size());
+	}
+
+	@Test
+	public void parallelBulkOperationsOnDegenerateTrees() {
+		int size = 20_000;
+		long sum = (long) size * (size - 1) / 2;
+		for(boolean ascending : new boolean[]{true, false}) {
+			MyMap<Integer, Integer> map = new MyMap<>();
+			for(int i = 0; i < size; i++) {
+				int key = ascending ? i : size - 1 - i;
+				map.put(key, key);
+			}
+			assertEquals(size, map.height());
+			for(long threshold : new long[]{1, 1_000, Long.MAX_VALUE}) {
+				assertEquals(Long.valueOf(sum), map.reduceValues(threshold, value -> (long) value, Long::sum));
+				assertEquals(Integer.valueOf(size - 1), map.search(threshold, (key, value) -> key == size - 1 ? key : null));
+				LongAdder visited = new LongAdder();
+				map.forEach(threshold, (key, value) -> visited.add(value));
+				assertEquals(sum, visited.sum());
+			}
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package net.htlgrieskirchen.aud2.map;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class PersistentMyMapTest {
+	@Test
+	public void oldVersionsStayUnchanged() {
+		List<PersistentMyMap<Integer, String>> versions = new ArrayList<>();
+		List<TreeMap<Integer, String>> expected = new ArrayList<>();
+		PersistentMyMap<Integer, String> map = new PersistentMyMap<>();
+		TreeMap<Integer, String> treeMap = new TreeMap<>();
+		Random random = new Random(42);
+		for(int i = 0; i < 2_000; i++) {
+			int key = random.nextInt(500);
+			if(random.nextInt(3) == 0) {
+				map = map.without(key);
+				treeMap.remove(key);
+			} else {
+				map = map.with(key, "v" + i);
+				treeMap.put(key, "v" + i);
+			}
+			if(i % 100 == 0) {
+				versions.add(map);
+				expected.add(new TreeMap<>(treeMap));
+			}
+		}
+		for(int i = 0; i < versions.size(); i++) {
+			versions.get(i).checkInvariants();
+			assertEquals(expected.get(i), versions.get(i));
+			assertEquals(new ArrayList<>(expected.get(i).keySet()), new ArrayList<>(versions.get(i).keySet()));
+		}
+	}
+
+	@Test
+	public void unchangedUpdatesReturnTheSameMap() {
+		PersistentMyMap<String, String> map = new PersistentMyMap<String, String>().with("a", "1");
+		assertSame(map, map.without("b"));
+		assertSame(map, map.with("a", map.get("a")));
+		assertNotSame(map, map.with("a", "2"));
+	}
+
+	@Test
+	public void navigationAndViews() {
+		PersistentMyMap<Integer, Integer> map = new PersistentMyMap<>(Comparator.reverseOrder());
+		TreeMap<Integer, Integer> treeMap = new TreeMap<>(Comparator.reverseOrder());
+		for(int i = 0; i < 100; i += 3) {
+			map = map.with(i, i * i);
+			treeMap.put(i, i * i);
+		}
+		assertEquals(treeMap.firstKey(), map.firstKey());
+		assertEquals(treeMap.ceilingEntry(50), map.ceilingEntry(50));
+		assertEquals(treeMap.lowerKey(50), map.lowerKey(50));
+		assertEquals(treeMap.subMap(80, true, 20, false), map.subMap(80, true, 20, false));
+		assertEquals(treeMap.subMap(80, false, 21, true).size(), map.subMap(80, false, 21, true).size());
+		assertEquals(new ArrayList<>(treeMap.descendingMap().tailMap(60).keySet()), new ArrayList<>(map.descendingMap().tailMap(60).keySet()));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void putIsUnsupported() {
+		new PersistentMyMap<String, String>().put("a", "b");
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void removeOfAbsentKeyIsUnsupported() {
+		new PersistentMyMap<String, String>().with("a", "b").remove("c");
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void iteratorRemoveIsUnsupported() {
+		Iterator<String> iterator = new PersistentMyMap<String, String>().with("a", "b").keySet().iterator();
+		iterator.next();
+		iterator.remove();
+	}
+
+	@Test
+	public void snapshotsOfConcurrentMapAreFrozen() throws Exception {
+		ConcurrentMyMap<Integer, Integer> map = new ConcurrentMyMap<>();
+		for(int i = 0; i < 1_000; i++)
+			map.put(i, i);
+		PersistentMyMap<Integer, Integer> snapshot = map.snapshot();
+		Thread writer = new Thread(() -> {
+			for(int i = 0; i < 1_000; i++) {
+				map.remove(i);
+				map.put(-i - 1, i);
+			}
+		});
+		writer.start();
+		int expected = 0;
+		for(Map.Entry<Integer, Integer> entry : snapshot.entrySet())
+			assertEquals(expected++, entry.getKey().intValue());
+		writer.join();
+		assertEquals(1_000, expected);
+		assertEquals(1_000, snapshot.size());
+		assertEquals(Integer.valueOf(-1_000), map.firstKey());
+		assertNull(snapshot.get(-1));
+	}
+}
@@ -0,0 +1,129 @@
+package net.htlgrieskirchen.aud2.map;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class PrimitiveMyMapTest {
+	@Test
+	public void longMapMatchesTreeMap() {
+		LongMyMap<String> map = new LongMyMap<>();
+		TreeMap<Long, String> treeMap = new TreeMap<>();
+		Random random = new Random(42);
+		for(int i = 0; i < 20_000; i++) {
+			long key = random.nextInt(2_000) * 1_000_000_007L;
+			if(random.nextInt(3) == 0) {
+				assertEquals(treeMap.remove(key), map.remove(key));
+			} else {
+				String value = Integer.toString(i);
+				assertEquals(treeMap.put(key, value), map.put(key, value));
+			}
+			assertEquals(treeMap.containsKey(key), map.containsKey(key));
+			assertEquals(treeMap.get(key), map.get(key));
+		}
+		map.checkInvariants();
+		assertEquals(treeMap.size(), map.size());
+		assertEquals(treeMap.firstKey().longValue(), map.firstKey());
+		assertEquals(treeMap.lastKey().longValue(), map.lastKey());
+		assertEquals(treeMap.toString(), map.toString());
+	}
+
+	@Test
+	public void intMapMatchesTreeMap() {
+		IntMyMap<String> map = new IntMyMap<>();
+		TreeMap<Integer, String> treeMap = new TreeMap<>();
+		Random random = new Random(42);
+		for(int i = 0; i < 20_000; i++) {
+			int key = random.nextInt(2_000) - 1_000;
+			if(random.nextInt(3) == 0) {
+				assertEquals(treeMap.remove(key), map.remove(key));
+			} else {
+				String value = Integer.toString(i);
+				assertEquals(treeMap.put(key, value), map.put(key, value));
+			}
+			assertEquals(treeMap.get(key), map.get(key));
+		}
+		map.checkInvariants();
+		assertEquals(treeMap.size(), map.size());
+		assertEquals(treeMap.toString(), map.toString());
+	}
+
+	@Test
+	public void sequentialKeysStayBalanced() {
+		LongMyMap<Long> map = new LongMyMap<>();
+		int size = 1 << 20;
+		for(long i = 0; i < size; i++)
+			map.put(i, null);
+		map.checkInvariants();
+		assertTrue(map.height() <= 1.4405 * Math.log(size + 2) / Math.log(2));
+	}
+
+	@Test
+	public void forEachIsSorted() {
+		IntMyMap<String> map = new IntMyMap<>();
+		for(int key : new int[]{5, -3, 17, 0, 9})
+			map.put(key, "v" + key);
+		List<Integer> keys = new ArrayList<>();
+		map.forEach((key, value) -> {
+			assertEquals("v" + key, value);
+			keys.add(key);
+		});
+		assertEquals(Arrays.asList(-3, 0, 5, 9, 17), keys);
+	}
+
+	@Test
+	public void emptyMaps() {
+		assertTrue(new LongMyMap<>().isEmpty());
+		assertNull(new IntMyMap<>().get(1));
+		assertEquals("{}", new LongMyMap<>().toString());
+	}
+
+	@Test(expected = NoSuchElementException.class)
+	public void firstKeyEmpty() {
+		new LongMyMap<>().firstKey();
+	}
+
+	@Test
+	public void offHeapMapMatchesTreeMap() {
+		OffHeapLongMyMap<String> map = new OffHeapLongMyMap<>();
+		TreeMap<Long, String> treeMap = new TreeMap<>();
+		Random random = new Random(42);
+		for(int i = 0; i < 200_000; i++) {
+			long key = random.nextInt(100_000) * 1_000_000_007L;
+			if(random.nextInt(3) == 0) {
+				assertEquals(treeMap.remove(key), map.remove(key));
+			} else {
+				String value = Integer.toString(i);
+				assertEquals(treeMap.put(key, value), map.put(key, value));
+			}
+			assertEquals(treeMap.get(key), map.get(key));
+		}
+		map.checkInvariants();
+		assertEquals(treeMap.size(), map.size());
+		assertEquals(treeMap.firstKey().longValue(), map.firstKey());
+		assertEquals(treeMap.lastKey().longValue(), map.lastKey());
+		assertEquals(treeMap.toString(), map.toString());
+	}
+
+	@Test
+	public void offHeapMapReusesFreedSlots() {
+		OffHeapLongMyMap<Long> map = new OffHeapLongMyMap<>();
+		long bytes = 0;
+		for(int round = 0; round < 5; round++) {
+			for(long i = 0; i < 100_000; i++)
+				map.put(i, i);
+			map.checkInvariants();
+			if(round == 0)
+				bytes = map.offHeapBytes();
+			assertEquals(bytes, map.offHeapBytes());
+			for(long i = 0; i < 100_000; i++)
+				assertEquals(Long.valueOf(i), map.remove(i));
+		}
+		map.checkInvariants();
+		assertTrue(map.isEmpty());
+		map.clear();
+		assertEquals(0, map.offHeapBytes());
+	}
+}
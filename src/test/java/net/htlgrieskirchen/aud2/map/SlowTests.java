@@ -0,0 +1,8 @@
+package net.htlgrieskirchen.aud2.map;
+
+/**
+ * JUnit category of tests that are left out of the regular test task and
+ * run with {@code gradle slowTest}.
+ */
+public interface SlowTests {
+}